@@ -1,6 +1,8 @@
 package geoapp;
 import geoapp.ui.*;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 
 /**
@@ -13,16 +15,88 @@ public class App
 {
 	
 	private static ArrayList<CompositeRoute> routes;
+	private static RouteCatalog catalog;
+	// Built with the routes, or on first use when routes are lazy
+	private static SpatialIndex spatialIndex;
 	private static RouteNavigator navigator;
 	private static UIController ui;
 	
 	// If true, routes will be downloaded from a central server on startup.
 	private static boolean downloadRoutes = true;
 	
+	// The number of threads used to build routes after they are downloaded.
+	private static int parseParallelism = Runtime.getRuntime().availableProcessors();
+	
+	// If set, routes are loaded from this binary route store when it exists,
+	// and saved to it after they are downloaded.
+	private static File routeStore = null;
+	
+	// If true, routes are only indexed on startup, and built when they are first used.
+	private static boolean lazyRoutes = false;
+	// The maximum number of built routes kept in memory when routes are lazy.
+	private static int routeCacheSize = 64;
+	
+	// The tolerances in metres that routes are simplified at when they are loaded.
+	private static double[] simplificationTolerances = RouteSimplification.DEFAULT_TOLERANCES;
+	
+	// The number of waypoint and off route events that can wait for the UI. Events are passed to the UI
+	// on its own thread, so a slow UI does not hold up the thread receiving locations.
+	// With a capacity of 0, the UI is called on the receiving thread instead.
+	private static int eventQueueCapacity = 1024;
+	private static NavigationEventRing events;
+	private static Thread eventDispatcher;
+	
+	// Passes navigation events to the UI
+	private static final NavigationEventRing.Handler uiDispatch = new NavigationEventRing.Handler()
+	{
+		@Override
+		public void positionUpdated()
+		{
+			ui.positionUpdated(navigator.getCurrentPosition());
+		}
+		
+		@Override
+		public void eventReceived(int type, Waypoint waypoint, RouteMatch match)
+		{
+			switch(type)
+			{
+				case NavigationEventRing.WAYPOINT_REACHED:
+					ui.targetWaypointUpdated(waypoint);
+					break;
+				case NavigationEventRing.OFF_ROUTE:
+					ui.offRoute(match);
+					break;
+				case NavigationEventRing.REJOINED_ROUTE:
+					ui.rejoinedRoute(match);
+					break;
+			}
+		}
+	};
+	
+	// Passes navigation events to the ring read by the dispatch thread
+	private static final NavigationEventRing.Handler ringPublisher = new NavigationEventRing.Handler()
+	{
+		@Override
+		public void positionUpdated()
+		{
+			events.positionUpdated();
+		}
+		
+		@Override
+		public void eventReceived(int type, Waypoint waypoint, RouteMatch match)
+		{
+			events.publish(type, waypoint, match);
+		}
+	};
+	
 	public static void init(UIController ui)
 	{
 		App.ui = ui;
 		routes = new ArrayList<CompositeRoute>();
+		catalog = new RouteCatalog();
+		navigator = new RouteNavigator();
+		spatialIndex = null;
+		startEventDispatch();
 		
 		// Download routes on initialisation:
 		if(downloadRoutes)
@@ -30,10 +104,82 @@ public class App
 			ArrayList<CompositeRoute> newRoutes = readRouteData();
 			if(newRoutes != null)
 			{
-				routes = newRoutes;
-				ui.routesUpdated(routes);
+				routesChanged(newRoutes);
+			}
+		}
+	}
+	
+	/**
+	 * Downloads the route data again and merges it with the current routes,
+	 * rebuilding only the routes that changed. The UI is notified if any route changed.
+	 */
+	public static void refreshRoutes()
+	{
+		if(lazyRoutes)
+		{
+			// Indexing is cheap, so index the whole route data again
+			ArrayList<CompositeRoute> newRoutes = readRouteData();
+			if(newRoutes != null)
+			{
+				routesChanged(newRoutes);
+			}
+			return;
+		}
+		
+		long feedVersion = getRouteDataVersion();
+		try(Reader routeData = GeoUtils.openRouteData())
+		{
+			if(catalog.refresh(routeData, parseParallelism))
+			{
+				routesChanged(catalog.getRoutes());
+				saveRouteStore(feedVersion);
+			}
+		}catch(IOException e)
+		{
+			ui.routeDownloadFailed();
+		}
+	}
+	
+	/**
+	 * Replaces the routes, and the index of their waypoints, and notifies the UI.
+	 * Routes are simplified as well. Lazy routes are not indexed or simplified until they are used,
+	 * as both build every route. Routes mapped from the route store are only simplified when they
+	 * are first used, so that simplifying them does not read every page of the store.
+	 */
+	private static void routesChanged(ArrayList<CompositeRoute> newRoutes)
+	{
+		routes = newRoutes;
+		if(lazyRoutes)
+		{
+			spatialIndex = null;
+		}else
+		{
+			spatialIndex = new SpatialIndex(routes);
+			ArrayList<CompositeRoute> inMemory = new ArrayList<CompositeRoute>(routes.size());
+			for(CompositeRoute route : routes)
+			{
+				if(route.isMapped())
+				{
+					route.setSimplificationTolerances(simplificationTolerances);
+				}else
+				{
+					inMemory.add(route);
+				}
 			}
+			RouteSimplification.simplifyAll(inMemory, simplificationTolerances, parseParallelism);
 		}
+		ui.routesUpdated(routes);
+	}
+	
+	/**
+	 * Finds the routes passing within the given distance of a position, and passes them to the UI,
+	 * nearest first.
+	 * @param position
+	 * @param metres
+	 */
+	public static void findRoutesNear(GeoPosition position, double metres)
+	{
+		ui.routesFound(position, metres, getSpatialIndex().routesWithinRadius(position, metres));
 	}
 	
 	/**
@@ -41,42 +187,247 @@ public class App
 	 */
 	public static void updatePosition()
 	{
-		ui.positionUpdated(navigator.getCurrentPosition());
-		
-		// Check if we've reached the next waypoint
-		if(navigator.distanceToNextWaypoint() < 10d)
+		navigator.update(events == null ? uiDispatch : ringPublisher);
+	}
+	
+	/**
+	 * Stops the thread passing events to the UI, if there is one, and starts a new one.
+	 */
+	private static void startEventDispatch()
+	{
+		if(eventDispatcher != null)
 		{
-			navigator.moveNext();
-			ui.targetWaypointUpdated(navigator.getNextWaypoint());
+			eventDispatcher.interrupt();
+			eventDispatcher = null;
 		}
+		if(eventQueueCapacity == 0)
+		{
+			events = null;
+			return;
+		}
+		
+		events = new NavigationEventRing(eventQueueCapacity);
+		final NavigationEventRing.Consumer consumer = events.addConsumer();
+		eventDispatcher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				Thread thread = Thread.currentThread();
+				while(!thread.isInterrupted())
+				{
+					try
+					{
+						consumer.poll(uiDispatch, 100000000L);
+					}catch(RuntimeException e)
+					{
+						// Report a failing UI callback without stopping the events after it
+						thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+					}
+				}
+			}
+		}, "navigation-events");
+		eventDispatcher.setDaemon(true);
+		eventDispatcher.start();
+	}
+	
+	/**
+	 * Returns the ring passing navigation events to the UI, with its depth and drop counters,
+	 * or null if the UI is called on the thread receiving locations.
+	 * @return
+	 */
+	public static NavigationEventRing getEventRing()
+	{
+		return events;
 	}
 	
 	public static void setRoute(CompositeRoute route)
 	{
+		if(route instanceof LazyCompositeRoute)
+		{
+			// Navigate the built route, so it stays in memory for as long as it is in use
+			route = ((LazyCompositeRoute)route).materialize();
+		}
 		navigator.setRoute(route);
 	}
 	
+	public static RouteNavigator getNavigator()
+	{
+		return navigator;
+	}
+	
 	public static Iterable<CompositeRoute> getRoutes()
 	{
 		return routes;
 	}
 	
+	/**
+	 * Returns the index of the waypoints of every route, building it if the routes are lazy.
+	 * @return
+	 */
+	public static SpatialIndex getSpatialIndex()
+	{
+		SpatialIndex index = spatialIndex;
+		if(index == null)
+		{
+			index = new SpatialIndex(routes);
+			spatialIndex = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Sets how many waypoint and off route events can wait for the UI, taking effect on the next init.
+	 * With a capacity of 0 the UI is called on the thread receiving locations, as soon as each location arrives.
+	 * @param capacity
+	 */
+	public static void setEventQueueCapacity(int capacity)
+	{
+		if(capacity < 0)
+		{
+			throw new IllegalArgumentException("capacity must not be negative");
+		}
+		eventQueueCapacity = capacity;
+	}
+	
 	public static void setRouteDownload(boolean download)
 	{
 		downloadRoutes = download;
 	}
 	
+	public static void setParseParallelism(int parallelism)
+	{
+		if(parallelism < 1)
+		{
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		parseParallelism = parallelism;
+	}
+	
+	public static void setRouteStore(File store)
+	{
+		routeStore = store;
+	}
+	
+	public static void setLazyRoutes(boolean lazy)
+	{
+		lazyRoutes = lazy;
+	}
+	
+	public static void setRouteCacheSize(int size)
+	{
+		routeCacheSize = size;
+	}
+	
+	/**
+	 * Sets the tolerances in metres that routes are simplified at when they are loaded.
+	 * @param tolerances
+	 */
+	public static void setSimplificationTolerances(double... tolerances)
+	{
+		simplificationTolerances = tolerances.clone();
+	}
+	
 	static ArrayList<CompositeRoute> readRouteData()
 	{
 		ArrayList<CompositeRoute> result = null;
-		try
+		if(lazyRoutes)
+		{
+			try
+			{
+				result = new LazyRouteCatalog(GeoUtils.mapRouteData(), routeCacheSize).getRoutes();
+			}catch(IOException e)
+			{
+				ui.routeDownloadFailed();
+			}
+			return result;
+		}
+		
+		if(routeStore != null && routeStore.isFile() && isRouteStoreCurrent())
+		{
+			try
+			{
+				// Later refreshes only rebuild the routes that changed since the store was written
+				catalog = BinaryRouteStore.read(routeStore);
+				return catalog.getRoutes();
+			}catch(IOException e)
+			{
+				// The store could not be read, download the routes instead
+			}
+		}
+		
+		// Taken before the route data is read, so a change made while reading it is seen next time
+		long feedVersion = getRouteDataVersion();
+		try(Reader routeData = GeoUtils.openRouteData())
 		{
-			String routeData = GeoUtils.retrieveRouteData();
-			result = CompositeRoute.parse(routeData);
+			catalog.refresh(routeData, parseParallelism);
+			result = catalog.getRoutes();
 		}catch(IOException e)
 		{
 			ui.routeDownloadFailed();
 		}
+		
+		if(result != null)
+		{
+			saveRouteStore(feedVersion);
+		}
 		return result;
 	}
+	
+	/**
+	 * Returns true if the route store was built from the current route data, comparing versions
+	 * rather than reading the route data. If the route data is not available, the store is used as it is.
+	 */
+	private static boolean isRouteStoreCurrent()
+	{
+		long storedVersion;
+		try
+		{
+			storedVersion = BinaryRouteStore.readFeedVersion(routeStore);
+		}catch(IOException e)
+		{
+			return false;
+		}
+		
+		try
+		{
+			return GeoUtils.getRouteDataVersion() == storedVersion;
+		}catch(IOException e)
+		{
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns the current version of the route data, or 0 if it is not available.
+	 */
+	private static long getRouteDataVersion()
+	{
+		try
+		{
+			return GeoUtils.getRouteDataVersion();
+		}catch(IOException e)
+		{
+			return 0;
+		}
+	}
+	
+	/**
+	 * Writes the routes in the catalog to the route store, if there is one.
+	 * @param feedVersion the version of the route data the catalog was last refreshed from
+	 */
+	private static void saveRouteStore(long feedVersion)
+	{
+		if(routeStore == null)
+		{
+			return;
+		}
+		try
+		{
+			BinaryRouteStore.write(catalog, feedVersion, routeStore);
+		}catch(IOException e)
+		{
+			// The store is only a cache, the routes can be downloaded again next time
+		}
+	}
 }
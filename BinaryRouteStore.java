@@ -0,0 +1,318 @@
+package geoapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Stores parsed routes in a compact binary file, which can be memory mapped on startup
+ * instead of downloading and parsing the route data again. The totals of each route are stored
+ * as well, so they do not have to be recalculated from the mapped waypoints.
+ *
+ * File layout (big endian):
+ *  - header:       magic, version, feed version, route count, waypoint count, description count
+ *  - route table:  name, description, block hash, terminated flag, index of the first waypoint,
+ *                  number of waypoints, distance, ascension, descension (per route)
+ *  - descriptions: every distinct waypoint description
+ *  - padding to a multiple of 8 bytes
+ *  - columns:      latitudes, longitudes, altitudes (doubles), description indices (ints)
+ *
+ * Strings are stored as their length in bytes followed by their UTF-8 encoding.
+ * The feed version identifies the route data the routes were built from (see GeoUtils.getRouteDataVersion()),
+ * so a store can be checked against the current route data without reading it. The block hashes let
+ * the routes be merged with newer route data without building them again.
+ */
+public class BinaryRouteStore
+{
+	private static final int MAGIC = 0x47454F52; // "GEOR"
+	private static final int VERSION = 4;
+	
+	/**
+	 * Writes the waypoints of each route in a catalog to a binary route store. The store is written to a
+	 * temporary file first and then moved over the old one, so routes still mapped from the old
+	 * store are not changed underneath them.
+	 * @param catalog
+	 * @param feedVersion the version of the route data the routes were built from
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(RouteCatalog catalog, long feedVersion, File file) throws IOException
+	{
+		ArrayList<CompositeRoute> routes = catalog.getRoutes();
+		
+		// Flatten the routes and pool their descriptions
+		ArrayList<ArrayList<Waypoint>> routeWaypoints = new ArrayList<ArrayList<Waypoint>>();
+		HashMap<String, Integer> descriptionIndices = new HashMap<String, Integer>();
+		ArrayList<String> descriptions = new ArrayList<String>();
+		int waypointCount = 0;
+		for(CompositeRoute route : routes)
+		{
+			ArrayList<Waypoint> waypoints = route.getWaypoints();
+			for(Waypoint point : waypoints)
+			{
+				if(!descriptionIndices.containsKey(point.getDescription()))
+				{
+					descriptionIndices.put(point.getDescription(), descriptions.size());
+					descriptions.add(point.getDescription());
+				}
+			}
+			routeWaypoints.add(waypoints);
+			waypointCount += waypoints.size();
+		}
+		
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(feedVersion);
+			out.writeInt(routes.size());
+			out.writeInt(waypointCount);
+			out.writeInt(descriptions.size());
+			
+			int first = 0;
+			for(int ii = 0; ii < routes.size(); ii++)
+			{
+				CompositeRoute route = routes.get(ii);
+				int count = routeWaypoints.get(ii).size();
+				writeString(out, route.toString());
+				writeString(out, route.getDescription());
+				out.writeLong(catalog.getHash(ii));
+				out.writeBoolean(route.isTerminated());
+				out.writeInt(first);
+				out.writeInt(count);
+				out.writeDouble(route.getHorizontalDistance());
+				out.writeDouble(route.getAscension());
+				out.writeDouble(route.getDescension());
+				first += count;
+			}
+			
+			for(String description : descriptions)
+			{
+				writeString(out, description);
+			}
+			
+			// Align the columns so they can be read as doubles directly
+			while(out.size() % 8 != 0)
+			{
+				out.writeByte(0);
+			}
+			
+			for(ArrayList<Waypoint> waypoints : routeWaypoints)
+			{
+				for(Waypoint point : waypoints)
+				{
+					out.writeDouble(point.getLatitude());
+				}
+			}
+			for(ArrayList<Waypoint> waypoints : routeWaypoints)
+			{
+				for(Waypoint point : waypoints)
+				{
+					out.writeDouble(point.getLongitude());
+				}
+			}
+			for(ArrayList<Waypoint> waypoints : routeWaypoints)
+			{
+				for(Waypoint point : waypoints)
+				{
+					out.writeDouble(point.getAltitude());
+				}
+			}
+			for(ArrayList<Waypoint> waypoints : routeWaypoints)
+			{
+				for(Waypoint point : waypoints)
+				{
+					out.writeInt(descriptionIndices.get(point.getDescription()));
+				}
+			}
+		}catch(IOException e)
+		{
+			temp.delete();
+			throw e;
+		}
+		
+		try
+		{
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e)
+		{
+			temp.delete();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the version of the route data a binary route store was built from, without reading its routes.
+	 * @param file
+	 * @return
+	 * @throws IOException if the file could not be read or is not a route store
+	 */
+	public static long readFeedVersion(File file) throws IOException
+	{
+		try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if(input.readInt() != MAGIC || input.readInt() != VERSION)
+			{
+				throw new IOException("Not a route store: " + file);
+			}
+			return input.readLong();
+		}catch(EOFException e)
+		{
+			throw new IOException("Corrupt route store: " + file, e);
+		}
+	}
+	
+	/**
+	 * Memory maps a binary route store and returns a catalog of its routes. Only the route table and
+	 * descriptions are read up front; waypoints are read from the mapped file when they are used.
+	 * @param file
+	 * @return
+	 * @throws IOException if the file could not be read or is not a route store
+	 */
+	public static RouteCatalog read(File file) throws IOException
+	{
+		MappedByteBuffer buffer;
+		try(RandomAccessFile input = new RandomAccessFile(file, "r");
+			FileChannel channel = input.getChannel())
+		{
+			// A single buffer can only address an int's worth of bytes
+			if(channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Route store too large to map: " + file);
+			}
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}catch(RuntimeException e)
+		{
+			throw new IOException("Could not map route store: " + file, e);
+		}
+		
+		try
+		{
+			if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			{
+				throw new IOException("Not a route store: " + file);
+			}
+			buffer.getLong(); // Feed version
+			int routeCount = buffer.getInt();
+			int waypointCount = buffer.getInt();
+			int descriptionCount = buffer.getInt();
+			// Every route takes at least 49 bytes of the table, and every description at least 4
+			if(routeCount < 0 || waypointCount < 0 || descriptionCount < 0
+					|| routeCount > buffer.remaining() / 49 || descriptionCount > buffer.remaining() / 4)
+			{
+				throw new IOException("Corrupt route store: " + file);
+			}
+			
+			String[] names = new String[routeCount];
+			String[] routeDescriptions = new String[routeCount];
+			long[] hashes = new long[routeCount];
+			boolean[] terminated = new boolean[routeCount];
+			int[] firsts = new int[routeCount];
+			int[] counts = new int[routeCount];
+			double[][] totals = new double[routeCount][];
+			for(int ii = 0; ii < routeCount; ii++)
+			{
+				names[ii] = readString(buffer);
+				routeDescriptions[ii] = readString(buffer);
+				hashes[ii] = buffer.getLong();
+				terminated[ii] = buffer.get() != 0;
+				firsts[ii] = buffer.getInt();
+				counts[ii] = buffer.getInt();
+				if(firsts[ii] < 0 || counts[ii] < 0 || firsts[ii] > waypointCount - counts[ii])
+				{
+					throw new IOException("Corrupt route store: " + file);
+				}
+				totals[ii] = new double[] {buffer.getDouble(), buffer.getDouble(), buffer.getDouble()};
+			}
+			
+			String[] descriptions = new String[descriptionCount];
+			for(int ii = 0; ii < descriptionCount; ii++)
+			{
+				descriptions[ii] = readString(buffer);
+			}
+			
+			// Check the columns fit in the file before slicing them, in longs so they cannot overflow
+			int offset = (buffer.position() + 7) / 8 * 8;
+			if(offset + waypointCount * 28L > buffer.capacity())
+			{
+				throw new IOException("Truncated route store: " + file);
+			}
+			DoubleBuffer latitudes = column(buffer, offset, waypointCount * 8).asDoubleBuffer();
+			offset += waypointCount * 8;
+			DoubleBuffer longitudes = column(buffer, offset, waypointCount * 8).asDoubleBuffer();
+			offset += waypointCount * 8;
+			DoubleBuffer altitudes = column(buffer, offset, waypointCount * 8).asDoubleBuffer();
+			offset += waypointCount * 8;
+			IntBuffer descriptionIndices = column(buffer, offset, waypointCount * 4).asIntBuffer();
+			
+			ArrayList<CompositeRoute> result = new ArrayList<CompositeRoute>(routeCount);
+			for(int ii = 0; ii < routeCount; ii++)
+			{
+				CompositeRoute route = new CompositeRoute(names[ii], routeDescriptions[ii]);
+				if(counts[ii] > 1)
+				{
+					route.addRoute(new MappedRoute(latitudes, longitudes, altitudes,
+							descriptionIndices, descriptions, firsts[ii], counts[ii], totals[ii]));
+				}
+				route.setTerminated(terminated[ii]);
+				result.add(route);
+			}
+			return new RouteCatalog(result, hashes);
+		}catch(RuntimeException e)
+		{
+			// The file was truncated, or its tables are inconsistent
+			throw new IOException("Corrupt route store: " + file, e);
+		}catch(RouteConnectionException e)
+		{
+			// Cannot happen, each route only has a single subroute
+			throw new IOException("Corrupt route store: " + file, e);
+		}
+	}
+	
+	private static ByteBuffer column(ByteBuffer buffer, int offset, int length)
+	{
+		ByteBuffer column = buffer.duplicate();
+		column.position(offset);
+		column.limit(offset + length);
+		return column.slice();
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(ByteBuffer buffer) throws IOException
+	{
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining())
+		{
+			throw new IOException("Corrupt string in route store");
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
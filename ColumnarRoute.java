@@ -0,0 +1,348 @@
+package geoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A route whose waypoints are stored as columns of coordinates, with each waypoint's description
+ * held as an index into a pool of the route's distinct descriptions. Waypoints and segments are
+ * created when they are requested, and are not kept; use a waypoint cursor to walk the waypoints
+ * without creating any objects.
+ * 
+ * Waypoints are added to the end of the route while it is built. The route must not be changed
+ * once it has been added to another route, after which it may be read by any number of threads.
+ */
+public class ColumnarRoute implements Route
+{
+	private double[] latitudes;
+	private double[] longitudes;
+	private double[] altitudes;
+	private int[] descriptionIndices;
+	private int count;
+	
+	private final ArrayList<String> descriptions;
+	// The index of each description in the pool, dropped once the route is trimmed
+	private HashMap<String, Integer> descriptionPool;
+	
+	// Totals over the whole route, NaN until they are first needed
+	private volatile double distance = Double.NaN, ascension = Double.NaN, descension = Double.NaN;
+	// The first and last segments, built the first time they are needed
+	private volatile Segment start = null, end = null;
+	
+	public ColumnarRoute()
+	{
+		latitudes = new double[8];
+		longitudes = new double[8];
+		altitudes = new double[8];
+		descriptionIndices = new int[8];
+		count = 0;
+		descriptions = new ArrayList<String>();
+		descriptionPool = new HashMap<String, Integer>();
+	}
+	
+	/**
+	 * Creates a route over the first waypoints of another route, sharing its columns and descriptions.
+	 */
+	private ColumnarRoute(ColumnarRoute route, int count)
+	{
+		latitudes = route.latitudes;
+		longitudes = route.longitudes;
+		altitudes = route.altitudes;
+		descriptionIndices = route.descriptionIndices;
+		this.count = count;
+		descriptions = route.descriptions;
+		descriptionPool = null;
+		start = count > 1 ? route.start : null;
+	}
+	
+	/**
+	 * Adds a waypoint to the end of the route.
+	 * @param description
+	 * @param latitude
+	 * @param longitude
+	 * @param altitude
+	 */
+	void addWaypoint(String description, double latitude, double longitude, double altitude)
+	{
+		if(descriptionPool == null)
+		{
+			descriptionPool = new HashMap<String, Integer>();
+			for(int ii = 0; ii < descriptions.size(); ii++)
+			{
+				descriptionPool.put(descriptions.get(ii), ii);
+			}
+		}
+		Integer index = descriptionPool.get(description);
+		if(index == null)
+		{
+			index = descriptions.size();
+			descriptions.add(description);
+			descriptionPool.put(description, index);
+		}
+		
+		if(count == latitudes.length)
+		{
+			resize(count * 2);
+		}
+		// Positions are stored as a GeoPosition would hold them
+		latitudes[count] = GeoPosition.wrapLatitude(latitude);
+		longitudes[count] = GeoPosition.wrapLongitude(longitude);
+		altitudes[count] = altitude;
+		descriptionIndices[count] = index;
+		count++;
+		distance = ascension = descension = Double.NaN;
+		start = end = null;
+	}
+	
+	void addWaypoint(Waypoint waypoint)
+	{
+		addWaypoint(waypoint.getDescription(), waypoint.getLatitude(), waypoint.getLongitude(), waypoint.getAltitude());
+	}
+	
+	/**
+	 * Shrinks the columns to the number of waypoints, once no more waypoints will be added.
+	 */
+	void trimToSize()
+	{
+		resize(count);
+		descriptions.trimToSize();
+		descriptionPool = null;
+	}
+	
+	/**
+	 * Returns a route without the last waypoint of this route. The columns are shared rather than
+	 * copied, so neither route may be changed afterwards.
+	 */
+	ColumnarRoute withoutEnd()
+	{
+		return new ColumnarRoute(this, count - 1);
+	}
+	
+	private void resize(int capacity)
+	{
+		latitudes = Arrays.copyOf(latitudes, capacity);
+		longitudes = Arrays.copyOf(longitudes, capacity);
+		altitudes = Arrays.copyOf(altitudes, capacity);
+		descriptionIndices = Arrays.copyOf(descriptionIndices, capacity);
+	}
+	
+	/**
+	 * Returns the waypoint at the given index of this route.
+	 * @param index
+	 * @return
+	 */
+	public Waypoint getWaypoint(int index)
+	{
+		GeoPosition position = new GeoPosition(latitudes[index], longitudes[index], altitudes[index]);
+		return new Waypoint(descriptions.get(descriptionIndices[index]), position);
+	}
+	
+	/**
+	 * Returns a new cursor over the waypoints of this route.
+	 * @return
+	 */
+	@Override
+	public WaypointCursor waypointCursor()
+	{
+		return new Cursor();
+	}
+	
+	/**
+	 * Returns the start and end segments, which are kept once they are built, as they are asked for
+	 * repeatedly while routes are connected.
+	 */
+	@Override
+	public Segment getStart()
+	{
+		Segment result = start;
+		if(result == null && count > 1)
+		{
+			result = new Segment(getWaypoint(0), getWaypoint(1));
+			start = result;
+		}
+		return result;
+	}
+	
+	@Override
+	public Segment getEnd()
+	{
+		Segment result = end;
+		if(result == null && count > 1)
+		{
+			result = count == 2 ? getStart() : new Segment(getWaypoint(count - 2), getWaypoint(count - 1));
+			end = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a new cursor over the segments of this route. Each segment starts with the waypoint
+	 * ending the one before it, rather than a copy of it.
+	 */
+	@Override
+	public RouteCursor cursor()
+	{
+		return new RouteCursor()
+		{
+			// The index of the first waypoint of the next segment, and that waypoint if it has been created
+			private int current = 0;
+			private Waypoint previous = null;
+			
+			@Override
+			public boolean hasNext()
+			{
+				return current < count - 1;
+			}
+			
+			@Override
+			public Segment next()
+			{
+				if(!hasNext())
+				{
+					return null;
+				}
+				Waypoint first = previous != null ? previous : getWaypoint(current);
+				previous = getWaypoint(current + 1);
+				current++;
+				return new Segment(first, previous);
+			}
+			
+			@Override
+			public void reset()
+			{
+				current = 0;
+				previous = null;
+			}
+		};
+	}
+	
+	@Override
+	public double getHorizontalDistance()
+	{
+		if(Double.isNaN(distance))
+		{
+			double[] distances = new double[count];
+			GeoUtils.getMeasurementEngine().distances(latitudes, longitudes, count, distances);
+			
+			double total = 0d;
+			for(int ii = 0; ii < count - 1; ii++)
+			{
+				total += distances[ii];
+			}
+			distance = total;
+		}
+		return distance;
+	}
+	
+	@Override
+	public double getAscension()
+	{
+		if(Double.isNaN(ascension))
+		{
+			sumHeightDeltas();
+		}
+		return ascension;
+	}
+	
+	@Override
+	public double getDescension()
+	{
+		if(Double.isNaN(descension))
+		{
+			sumHeightDeltas();
+		}
+		return descension;
+	}
+	
+	private void sumHeightDeltas()
+	{
+		double up = 0d, down = 0d;
+		for(int ii = 1; ii < count; ii++)
+		{
+			double heightDelta = altitudes[ii] - altitudes[ii - 1];
+			if(heightDelta > 0d)
+			{
+				up += heightDelta;
+			}else
+			{
+				down -= heightDelta;
+			}
+		}
+		ascension = up;
+		descension = down;
+	}
+	
+	@Override
+	public int getNumWaypoints()
+	{
+		return count;
+	}
+	
+	@Override
+	public ArrayList<Waypoint> getWaypoints()
+	{
+		ArrayList<Waypoint> points = new ArrayList<Waypoint>(count);
+		for(int ii = 0; ii < count; ii++)
+		{
+			points.add(getWaypoint(ii));
+		}
+		return points;
+	}
+	
+	/**
+	 * Reads straight from the columns of the route.
+	 */
+	private class Cursor implements WaypointCursor
+	{
+		private int index = -1;
+		
+		@Override
+		public boolean next()
+		{
+			if(index + 1 >= count)
+			{
+				index = count;
+				return false;
+			}
+			index++;
+			return true;
+		}
+		
+		@Override
+		public void reset()
+		{
+			index = -1;
+		}
+		
+		@Override
+		public int getIndex()
+		{
+			return index;
+		}
+		
+		@Override
+		public double getLatitude()
+		{
+			return latitudes[index];
+		}
+		
+		@Override
+		public double getLongitude()
+		{
+			return longitudes[index];
+		}
+		
+		@Override
+		public double getAltitude()
+		{
+			return altitudes[index];
+		}
+		
+		@Override
+		public String getDescription()
+		{
+			return descriptions.get(descriptionIndices[index]);
+		}
+	}
+}
@@ -1,19 +1,43 @@
 package geoapp;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A composite route is a route comprising of other routes,
  * with the constraint that the end and start of consecutive subroutes
  * will be within a certain distance of each other.
+ * 
+ * Subroutes are only added while the route is built. After that the route, and the profile and
+ * indexes it builds on first use, may be read by any number of threads.
  */
 public class CompositeRoute implements Route
 {
+	private static final AtomicReferenceFieldUpdater<CompositeRoute, Route> BODY =
+			AtomicReferenceFieldUpdater.newUpdater(CompositeRoute.class, Route.class, "body");
+	
 	// Set to true to enable verbose parsing
-	private ArrayList<Route> routes = new ArrayList<Route>();
-	private int currentRoute = -1;
+	private final ArrayList<Route> routes = new ArrayList<Route>();
 	private final String name;
-	private String description;
+	private final String description;
+	
+	// Totals of the subroutes, updated as each subroute is added
+	private double distance = 0d, ascension = 0d, descension = 0d;
+	private int numWaypoints = 0;
+	// True if the last waypoint was read from the line ending the route's block
+	private boolean terminated = false;
+	// Built the first time it is needed, and only ever set once, so every route pointing to this one shares it
+	private volatile Route body = null;
+	// Built the first time they are needed. Two threads may both build one, and either result is kept
+	private volatile RouteProfile profile = null;
+	private volatile RouteMatcher matcher = null;
+	private volatile ElevationIndex elevationIndex = null;
+	private volatile RouteSimplification simplification = null;
+	private volatile double[] simplificationTolerances = RouteSimplification.DEFAULT_TOLERANCES;
 	
 	public CompositeRoute(String name, String description)
 	{
@@ -22,19 +46,18 @@ public class CompositeRoute implements Route
 	}
 	
 	/**
-	 * Returns true if the route was added, false if it could not be connected.
+	 * Adds a subroute to the end of this route, adding its totals to the totals of this route.
+	 * The subroute must not be changed afterwards. Only used while the route is built.
+	 * @throws RouteConnectionException if the subroute does not start where this route ends
 	 */
-	public void addRoute(Route r) throws RouteConnectionException
+	final void addRoute(Route r) throws RouteConnectionException
 	{
 		Waypoint newStart = r.getStart().getStartWaypoint();
 		Segment end = getEnd();
 		if(end != null)
 		{
-			Waypoint oldEnd = getEnd().getEndWaypoint();
-			double distanceDelta = GeoUtils.calcMetresDistance(
-						oldEnd.getLatitude(), oldEnd.getLongitude(), 
-						newStart.getLatitude(), newStart.getLongitude()
-					);
+			Waypoint oldEnd = end.getEndWaypoint();
+			double distanceDelta = GeoUtils.getProximityEngine().distance(oldEnd.getPosition(), newStart.getPosition());
 			double heightDelta = Math.abs(newStart.getAltitude() - oldEnd.getAltitude());
 			
 			if(distanceDelta > 10d || heightDelta > 2d)
@@ -43,6 +66,16 @@ public class CompositeRoute implements Route
 			}
 		}
 		routes.add(r);
+		profile = null;
+		matcher = null;
+		elevationIndex = null;
+		simplification = null;
+		
+		distance += r.getHorizontalDistance();
+		ascension += r.getAscension();
+		descension += r.getDescension();
+		// The first waypoint of each subroute after the first is the last waypoint of the one before it
+		numWaypoints += routes.size() == 1 ? r.getNumWaypoints() : r.getNumWaypoints() - 1;
 	}
 	
 	public ArrayList<Waypoint> getWaypoints()
@@ -71,41 +104,124 @@ public class CompositeRoute implements Route
 		return result;
 	}
 	
+	/**
+	 * Returns the waypoints of the simplest copy of this route made at a tolerance no greater than the
+	 * given one, or every waypoint if there is no such copy. Copies are made at the default tolerances
+	 * the first time this is called, unless the route has been simplified already.
+	 * @param toleranceMetres
+	 * @return
+	 */
+	public ArrayList<Waypoint> getWaypoints(double toleranceMetres)
+	{
+		ArrayList<Waypoint> level = getSimplification().getWaypoints(toleranceMetres);
+		return level == null ? getWaypoints() : level;
+	}
+	
+	/**
+	 * Makes simplified copies of this route at the given tolerances, replacing any made before.
+	 * @param tolerances in metres
+	 */
+	public void simplify(double[] tolerances)
+	{
+		simplification = new RouteSimplification(this, tolerances);
+	}
+	
+	/**
+	 * Sets the tolerances that simplified copies of this route are made at the first time they are used,
+	 * dropping any copies made before. Unlike simplify(), nothing is simplified until then.
+	 * @param tolerances in metres
+	 */
+	public void setSimplificationTolerances(double[] tolerances)
+	{
+		simplificationTolerances = tolerances.clone();
+		simplification = null;
+	}
+	
+	/**
+	 * Returns the simplified copies of this route, making them if there are none, at the default tolerances
+	 * unless others have been set.
+	 * @return
+	 */
+	public RouteSimplification getSimplification()
+	{
+		RouteSimplification result = simplification;
+		if(result == null)
+		{
+			result = new RouteSimplification(this, simplificationTolerances);
+			simplification = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns true if any part of this route is read from a memory mapped route store.
+	 * @return
+	 */
+	boolean isMapped()
+	{
+		for(Route route : routes)
+		{
+			if(route instanceof MappedRoute)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the subroutes of this route in order. The list must not be changed.
+	 * @return
+	 */
+	ArrayList<Route> getSubroutes()
+	{
+		return routes;
+	}
+	
+	/**
+	 * Returns true if the last waypoint of this route was read from the line ending its block,
+	 * and so is left out where another route points to this one.
+	 * @return
+	 */
+	boolean isTerminated()
+	{
+		return terminated;
+	}
+	
+	/**
+	 * Marks a route read back from a route store as ending with the line ending its block.
+	 * @param terminated
+	 */
+	void setTerminated(boolean terminated)
+	{
+		this.terminated = terminated;
+	}
+	
 	@Override
 	public int getNumWaypoints()
 	{
-		return getWaypoints().size();
+		return numWaypoints;
 	}
 	
 	@Override
 	public double getHorizontalDistance()
 	{
-		double distance = 0d;
-		for(Route r : routes)
-		{
-			distance += r.getHorizontalDistance();
-		}
 		return distance;
 	}
 	
 	@Override
 	public double getAscension() {
-		double distance = 0d;
-		for(Route r : routes)
-		{
-			distance += r.getAscension();
-		}
-		return distance;
+		return ascension;
 	}
 
 	@Override
 	public double getDescension() {
-		double distance = 0d;
-		for(Route r : routes)
-		{
-			distance += r.getDescension();
-		}
-		return distance;
+		return descension;
+	}
+	
+	public int getSubrouteCount()
+	{
+		return routes.size();
 	}
 	
 	public Route getSubroute(int index) throws ArrayIndexOutOfBoundsException
@@ -137,54 +253,119 @@ public class CompositeRoute implements Route
 	}
 
 	@Override
-	public boolean hasNext() {
-		if(routes.size() <= 0)
-		{
-			return false;
-		}
-		if(routes.get(currentRoute).hasNext()
-		|| routes.size() > currentRoute + 1)
-		{
-			return true;
-		}
-		return false;
+	public RouteCursor cursor()
+	{
+		return new SubrouteCursor();
 	}
-
+	
+	@Override
+	public WaypointCursor waypointCursor()
+	{
+		return new SubrouteWaypointCursor();
+	}
+	
 	@Override
-	public Segment next() {
-		if(!hasNext())
+	public String toString()
+	{
+		return name;
+	}
+	
+	/**
+	 * Returns the part of this route that is added to the routes pointing to it. The line ending a
+	 * route's block is left out wherever the route is pointed to, so the line after the pointer follows
+	 * on from the waypoint before it. The result has no segments if only the first waypoint is left.
+	 * @return
+	 */
+	Route getBody()
+	{
+		Route result = body;
+		if(result == null)
 		{
-			return null;
+			// Routes pointing to this one may be built at the same time, in which case only one body is kept
+			result = terminated ? withoutEnd() : this;
+			if(!BODY.compareAndSet(this, null, result))
+			{
+				result = body;
+			}
 		}
-		
-		Route current = routes.get(currentRoute);
-		if(current.hasNext())
+		return result;
+	}
+	
+	/**
+	 * Returns a route sharing every subroute of this route but the last, followed by the last subroute
+	 * without its last waypoint.
+	 */
+	private CompositeRoute withoutEnd()
+	{
+		CompositeRoute result = new CompositeRoute(name, description);
+		int lastIndex = routes.size() - 1;
+		try
 		{
-			return current.next();
-		}else
+			for(int ii = 0; ii < lastIndex; ii++)
+			{
+				result.addRoute(routes.get(ii));
+			}
+			// The line ending the block is always part of a run of waypoints,
+			// which is a single mapped run for routes read from a route store
+			Route end = routes.get(lastIndex);
+			if(end.getNumWaypoints() > 2)
+			{
+				result.addRoute(end instanceof MappedRoute ? ((MappedRoute)end).withoutEnd() : ((ColumnarRoute)end).withoutEnd());
+			}
+		}catch(RouteConnectionException e)
 		{
-			// Go to the next subroute
-			currentRoute++;
-			// reset the iterator of the next subroute
-			routes.get(currentRoute).resetIterator();
-			return next();
+			// Cannot happen, the subroutes were connected when they were added to this route
+			throw new IllegalStateException(e);
 		}
+		return result;
 	}
-
-	@Override
-	public void resetIterator()
+	
+	/**
+	 * Returns the segments of this route along with the totals before each of them,
+	 * building them on first use.
+	 * @return
+	 */
+	public RouteProfile getProfile()
 	{
-		currentRoute = 0;
-		if(routes.size() > 0)
+		RouteProfile result = profile;
+		if(result == null)
 		{
-			routes.get(0).resetIterator();
+			result = new RouteProfile(this);
+			profile = result;
 		}
+		return result;
 	}
 	
-	@Override
-	public String toString()
+	/**
+	 * Returns the index used to match positions to the segments of this route,
+	 * building it on first use.
+	 * @return
+	 */
+	public RouteMatcher getMatcher()
 	{
-		return name;
+		RouteMatcher result = matcher;
+		if(result == null)
+		{
+			result = new RouteMatcher(getProfile());
+			matcher = result;
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the index used to answer altitude and climb queries over ranges of this route's waypoints,
+	 * building it on first use.
+	 * @return
+	 */
+	public ElevationIndex getElevationIndex()
+	{
+		ElevationIndex result = elevationIndex;
+		if(result == null)
+		{
+			result = new ElevationIndex(getProfile());
+			elevationIndex = result;
+		}
+		return result;
 	}
 	
 	public String getDescription()
@@ -199,255 +380,290 @@ public class CompositeRoute implements Route
 	 */
 	public static ArrayList<CompositeRoute> parse(String routeString)
 	{
-		String[] routeData = routeString.split("\n");
-		
-		// A set of unparsed routes.
-		// Each comprises of an array list with the first element being the route
-		// name, followed by the description, and any lines following
-		ArrayList<ArrayList<String>> unparsedRoutes = new ArrayList<ArrayList<String>>();
-		
-		// The current route we're parsing (used in the first pass of the route data).
-		ArrayList<String> currentRoute = new ArrayList<String>();
-		for(int ii = 0; ii < routeData.length; ii++)
+		try
+		{
+			return parse(new StringReader(routeString));
+		}catch(IOException e)
 		{
-			// remove whitespace at the beginning and end of lines
-			routeData[ii] = routeData[ii].trim();
+			// Reading from a string cannot fail
+			return new ArrayList<CompositeRoute>();
 		}
+	}
 		
-		boolean searchingForRoute = true;
-		
-		// true if the current line has a description
-		boolean hasDescription;
-		
-		// true if the current line has a 'pointer' to another route.
-		boolean hasPointer; 
-		
-		// First pass of parser, bins all the lines in the route data
-		// into lists of strings, discards any invalid data.
-		for(int ii = 0; ii < routeData.length; ii++)
+	/**
+	 * Reads route data from a stream and returns the CompositeRoute representations,
+	 * in the order they appear in the stream. The stream is read line by line,
+	 * so the feed never has to be held in memory as a single string.
+	 * @param routeData
+	 * @return
+	 * @throws IOException
+	 */
+	public static ArrayList<CompositeRoute> parse(Reader routeData) throws IOException
+	{
+		return parse(routeData, 1);
+	}
+	
+	/**
+	 * Reads route data from a stream and returns the CompositeRoute representations,
+	 * in the order they appear in the stream. Routes are built using the given number of threads.
+	 * @param routeData
+	 * @param parallelism
+	 * @return
+	 * @throws IOException
+	 */
+	public static ArrayList<CompositeRoute> parse(Reader routeData, int parallelism) throws IOException
+	{
+		final TreeMap<Integer, CompositeRoute> parsed = new TreeMap<Integer, CompositeRoute>();
+		RouteDataStreamParser parser = new RouteDataStreamParser(routeData);
+		parser.setParallelism(parallelism);
+		parser.parse(new RouteDataStreamParser.RouteListener()
 		{
-			String description = RouteDataParser.description(routeData[ii]);
-			String name = RouteDataParser.name(routeData[ii]);
-			if(name != null)
-				name = name.trim();
-			
-			String pointer = RouteDataParser.pointer(routeData[ii]);
-			hasDescription = description != null;
-			hasPointer = pointer != null;
-			
-			if(searchingForRoute)
-			{
-				// Start the route at the next line with a description
-				if(hasDescription)
-				{
-					// This is the start of a new route, create it:
-					
-					currentRoute = new ArrayList<String>();
-					currentRoute.add(name);
-					currentRoute.add(description);
-					
-					searchingForRoute = false;
-				}
-			}else
+			@Override
+			public void routeParsed(CompositeRoute route, int position)
 			{
-				// We are inside a route already. End it when we find
-				// a line with no description or reference to another route.
-				
-				// this line is part of the current route, add it:
-				currentRoute.add(routeData[ii]);
-				
-				if(!hasDescription && !hasPointer)
-				{
-					// This line has neither a pointer nor a description, it must be the end of the route.
-					searchingForRoute = true;
-					
-					// Add the created route to the unparsed list
-					unparsedRoutes.add(currentRoute);
-					currentRoute = null;
-				}
+				parsed.put(position, route);
 			}
-		}
-		
+		});
+		return new ArrayList<CompositeRoute>(parsed.values());
+	}
 		
-		// Second pass, actually creates the subroutes of each composite path.
-		ArrayList<CompositeRoute> result = new ArrayList<CompositeRoute>();
+	/**
+	 * Creates a route from a block of route data. Each pointer of the block is replaced by the
+	 * matching route in subroutes (in the order the pointers appear), whose body is added as a subroute
+	 * as it is rather than copied. The waypoints between pointers are stored in columns, as a
+	 * ColumnarRoute. Returns null if the block does not form a valid route.
+	 * @param block
+	 * @param subroutes
+	 * @return
+	 */
+	static CompositeRoute build(RouteBlock block, CompositeRoute[] subroutes)
+	{
+		if(!block.isValid())
+		{
+			// A waypoint was invalid, and thus so is this route
+			return null;
+		}
 		
-		for(int ii = 0; ii < unparsedRoutes.size(); ii++)
+		CompositeRoute newRoute = new CompositeRoute(block.name, block.description);
+		// The waypoints read since the last pointer, starting from the end of the route before them
+		ColumnarRoute run = null;
+		Waypoint last = null;
+		int lastLine = block.size() - 1;
+		int pointer = 0;
+		try
 		{
-			ArrayList<String> inputLines = unparsedRoutes.get(ii);
-			if(inputLines != null)
+			for(int line = 0; line <= lastLine; line++)
 			{
-				ArrayList<String> unparsedLines = getExpandedRoute(unparsedRoutes, ii);
-				if(unparsedLines != null)
+				if(block.getType(line) == RouteLineTokenizer.POINTER)
 				{
-					String name = inputLines.get(0);
-					String description = inputLines.get(1);
-					// Turn the expanded lines into a route
+					CompositeRoute subroute = subroutes[pointer++];
+					if(subroute == null)
+					{
+						// The subroute is invalid, which invalidates this route too
+						return null;
+					}
+					Segment subrouteStart = subroute.getStart();
+					if(subrouteStart == null)
+					{
+						// Nothing to connect to
+						continue;
+					}
 					
-					CompositeRoute newRoute = new CompositeRoute(name, description);
-					Waypoint current, last = null;
-					String currentLine = "";
-					for(int line = 0; newRoute != null && line < unparsedLines.size(); line++)
+					Waypoint start = subrouteStart.getStartWaypoint();
+					Route body = subroute.getBody();
+					if(body.getStart() == null)
 					{
-						try
+						// Only the first waypoint of the subroute is left, which is added like a line of this route
+						if(run == null)
 						{
-							
-							currentLine = unparsedLines.get(line);
-							current = Waypoint.parse(currentLine);
-							
+							run = new ColumnarRoute();
 							if(last != null)
 							{
-								Segment segment = new Segment(last, current);
-								newRoute.addRoute(segment);
+								run.addWaypoint(last);
 							}
-							
-							last = current;
-						}catch(WaypointDescriptionException e)
-						{
-							// The waypoint string was invalid, and thus so is this route
-							newRoute = null;
-						}catch(IllegalArgumentException e)
-						{
-							// The description did not exist, this must be connected to the next route
-						}catch(RouteConnectionException e)
-						{
-							// The added segment could not be connected to the route, making this route invalid:
-							newRoute = null;
 						}
+						run.addWaypoint(start);
+						continue;
 					}
-					// Add the final segment
-					try
-					{
-						current = Waypoint.parse(currentLine + ",[]");
-						
-						if(last != null)
-						{
-							Segment segment = new Segment(last, current);
-							newRoute.addRoute(segment);
-						}
-					}catch(Exception e)
+					
+					if(run != null)
 					{
+						last = addRun(newRoute, run);
+						run = null;
 					}
 					
-					// Add the new route to the result
-					if(newRoute != null)
-						result.add(newRoute);
-					
+					// Connect the previous line to the start of the subroute
+					if(last != null)
+					{
+						newRoute.addRoute(new Segment(last, start));
+					}
+					newRoute.addRoute(body);
+					last = body.getEnd().getEndWaypoint();
+					continue;
 				}
-			}
-		}
-		
-		return result;
-	}
-	
-	private static ArrayList<String> getExpandedRoute(ArrayList<ArrayList<String>> routes, int startRouteIndex)
-	{
-		
-		ArrayList<String> result = new ArrayList<String>();
-		ArrayList<String> startRoute = routes.get(startRouteIndex);
-		int routeLength = startRoute.size();
-		String pointer;
-		for(int ii = 2; ii < routeLength; ii++)
-		{
-			pointer = RouteDataParser.pointer(startRoute.get(ii));
-			if(pointer == null)
-			{
-				// simply add this to the result
-				result.add(startRoute.get(ii));
-			}else
-			{
-				// This line is a pointer to another route, find the route and recursively parse it:
-				int subRouteIndex = findUnparsedRouteIndex(routes, pointer);
 				
-				if(subRouteIndex >= 0)
+				String description;
+				if(block.getType(line) == RouteLineTokenizer.WAYPOINT)
 				{
-					ArrayList<String> subRoute = getExpandedRoute(routes, startRouteIndex, subRouteIndex);
-					if(subRoute != null)
-					{
-						// The subroute was valid, add it:
-						result.addAll(subRoute);
-					}else
-					{
-						// The subroute was invalid, which invalidates this route too.
-						return null;
-					}
-					
+					description = block.getText(line);
+				}else if(line == lastLine && block.hasPosition(line))
+				{
+					// The line ending the route is its final waypoint
+					description = "";
+					newRoute.terminated = true;
 				}else
 				{
-					// The subroute could not be found. This route is invalid.
-					return null;
+					continue;
 				}
+				
+				if(run == null)
+				{
+					run = new ColumnarRoute();
+					if(last != null)
+					{
+						run.addWaypoint(last);
+					}
+				}
+				run.addWaypoint(description, block.getLatitude(line), block.getLongitude(line), block.getAltitude(line));
+			}
+			
+			if(run != null)
+			{
+				addRun(newRoute, run);
 			}
+		}catch(RouteConnectionException e)
+		{
+			// The added segment could not be connected to the route, making this route invalid:
+			return null;
 		}
-		return result;
+		
+		return newRoute;
 	}
 	
-	private static ArrayList<String> getExpandedRoute(ArrayList<ArrayList<String>> routes, int startRouteIndex, int currentRouteIndex)
+	/**
+	 * Adds a run of waypoints to a route being built, if it has a segment.
+	 * Returns the last waypoint of the run.
+	 */
+	private static Waypoint addRun(CompositeRoute route, ColumnarRoute run) throws RouteConnectionException
 	{
-		// If the current root is also the start route, then we have a circular dependency
-		// and must early out:
-		if(startRouteIndex == currentRouteIndex)
+		run.trimToSize();
+		if(run.getNumWaypoints() > 1)
 		{
-			return null;
+			route.addRoute(run);
 		}
+		return run.getWaypoint(run.getNumWaypoints() - 1);
+	}
+	
+	/**
+	 * Walks the segments of each subroute in turn, with a cursor of the subroute.
+	 */
+	private class SubrouteCursor implements RouteCursor
+	{
+		// The index of the subroute being walked, and its cursor
+		private int route = -1;
+		private RouteCursor current = null;
 		
-		ArrayList<String> result = new ArrayList<String>();
-		ArrayList<String> currentRoute = routes.get(currentRouteIndex);
-		int routeLength = currentRoute.size();
-		String pointer;
-		for(int ii = 2; ii < routeLength; ii++)
+		@Override
+		public boolean hasNext()
 		{
-			pointer = RouteDataParser.pointer(currentRoute.get(ii));
-			if(pointer == null)
+			while(current == null || !current.hasNext())
 			{
-				result.add(currentRoute.get(ii));
-			}else
-			{
-				// This line is a pointer to another route, find the route and recursively parse it:
-				int subRouteIndex = findUnparsedRouteIndex(routes, pointer);
-				
-				if(subRouteIndex >= 0)
-				{
-					ArrayList<String> subRoute = getExpandedRoute(routes, startRouteIndex, subRouteIndex);
-					result.addAll(subRoute);
-				}else
+				if(route + 1 >= routes.size())
 				{
-					// The subroute could not be found. This route is invalid.
-					return null;
+					return false;
 				}
+				route++;
+				current = routes.get(route).cursor();
 			}
+			return true;
+		}
+		
+		@Override
+		public Segment next()
+		{
+			if(!hasNext())
+			{
+				return null;
+			}
+			return current.next();
+		}
+		
+		@Override
+		public void reset()
+		{
+			route = -1;
+			current = null;
 		}
-		return result;
 	}
 	
 	/**
-	 * Finds an unparsed route with the given name in a list of unparsed routes.
-	 * Returns -1 if it could not be found.
-	 * The search is case-sensitive.
-	 * @param routes
-	 * @return
+	 * Walks the waypoints of each subroute in turn, with a waypoint cursor of the subroute.
+	 * As in getWaypoints(), the first waypoint of each subroute after the first is skipped,
+	 * as it is the last waypoint of the subroute before it.
 	 */
-	private static int findUnparsedRouteIndex(ArrayList<ArrayList<String>> routes, String name)
+	private class SubrouteWaypointCursor implements WaypointCursor
 	{
-		int result = -1;
-		int index = 0;
-		ArrayList<String> current;
-		while(result == -1 && index < routes.size())
+		// The index of the subroute being walked, and its cursor
+		private int route = -1;
+		private WaypointCursor current = null;
+		private int index = -1;
+		
+		@Override
+		public boolean next()
 		{
-			current = routes.get(index);
-			
-			if(current != null)
+			while(current == null || !current.next())
 			{
-				// Check the name
-				if(current.size() > 0 && current.get(0).equals(name))
+				if(route + 1 >= routes.size())
+				{
+					return false;
+				}
+				route++;
+				current = routes.get(route).waypointCursor();
+				if(route > 0)
 				{
-					// The route was found, return the index
-					result = index;
+					current.next();
 				}
 			}
 			index++;
+			return true;
+		}
+		
+		@Override
+		public void reset()
+		{
+			route = -1;
+			current = null;
+			index = -1;
+		}
+		
+		@Override
+		public int getIndex()
+		{
+			return index;
+		}
+		
+		@Override
+		public double getLatitude()
+		{
+			return current.getLatitude();
+		}
+		
+		@Override
+		public double getLongitude()
+		{
+			return current.getLongitude();
+		}
+		
+		@Override
+		public double getAltitude()
+		{
+			return current.getAltitude();
+		}
+		
+		@Override
+		public String getDescription()
+		{
+			return current.getDescription();
 		}
-		return result;
 	}
-	
 }
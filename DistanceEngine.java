@@ -0,0 +1,68 @@
+package geoapp;
+
+/**
+ * Calculates the horizontal distance in metres between two positions.
+ * Engines trade accuracy for speed, from a flat approximation only suitable for short distances,
+ * through the spherical haversine formula, to Vincenty's formulae on the WGS-84 ellipsoid.
+ * 
+ * GeoUtils holds the engine used for short-range checks (arriving at waypoints, connecting routes)
+ * and the engine used for reported distances, and either can be replaced.
+ */
+public interface DistanceEngine
+{
+	/**
+	 * Treats the Earth as flat around the two positions. Within about 0.1% of haversine for
+	 * positions less than 10km apart, and needs no trigonometry.
+	 */
+	public static final DistanceEngine EQUIRECTANGULAR = new EquirectangularDistance();
+	
+	/**
+	 * Great circle distance on a sphere of the Earth's mean radius. Within about 0.5% of the
+	 * ellipsoidal distance at any range.
+	 */
+	public static final DistanceEngine HAVERSINE = new HaversineDistance();
+	
+	/**
+	 * Geodesic distance on the WGS-84 ellipsoid, accurate to well under a millimetre.
+	 * Iterative, so the slowest of the engines.
+	 */
+	public static final DistanceEngine VINCENTY = new VincentyDistance();
+	
+	public double distance(GeoPosition from, GeoPosition to);
+	
+	/**
+	 * Calculates the distance from a latitude and longitude (already wrapped into range) to a position.
+	 * Engines can override this to avoid building a GeoPosition for the first point.
+	 * @param latitude
+	 * @param longitude
+	 * @param to
+	 * @return
+	 */
+	public default double distance(double latitude, double longitude, GeoPosition to)
+	{
+		return distance(new GeoPosition(latitude, longitude, 0d), to);
+	}
+	
+	/**
+	 * Calculates the distance between each pair of consecutive points, setting distances[i] to the
+	 * distance from point i to point i + 1, for the first count points of the arrays.
+	 * @param latitudes
+	 * @param longitudes
+	 * @param count
+	 * @param distances
+	 */
+	public default void distances(double[] latitudes, double[] longitudes, int count, double[] distances)
+	{
+		if(count < 2)
+		{
+			return;
+		}
+		GeoPosition to = new GeoPosition(latitudes[0], longitudes[0], 0d);
+		for(int ii = 0; ii < count - 1; ii++)
+		{
+			GeoPosition from = to;
+			to = new GeoPosition(latitudes[ii + 1], longitudes[ii + 1], 0d);
+			distances[ii] = distance(from, to);
+		}
+	}
+}
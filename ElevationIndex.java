@@ -0,0 +1,259 @@
+package geoapp;
+
+/**
+ * Answers questions about the altitudes of a range of a route's waypoints: the lowest and highest
+ * waypoints, the height climbed and descended, and the steepest segments. Waypoint i is the start of
+ * segment i of the route's profile, and the last waypoint is the end of the last segment.
+ * 
+ * Climb and descent come from the profile's running totals in O(1). The rest use segment trees,
+ * which answer in O(log n) and take a few ints per waypoint, rather than a sparse table's
+ * O(1) answers at O(n log n) memory.
+ */
+public class ElevationIndex
+{
+	private final RouteProfile profile;
+	private final int count;
+	private final double[] altitudes;
+	// The rise over the run of each segment, 0 for a segment with no length
+	private final double[] gradients;
+	
+	// Each tree holds the index of the winning leaf below each node, with the leaves in the second half
+	private final int[] lowestTree, highestTree, steepestClimbTree, steepestDescentTree;
+	
+	/**
+	 * Indexes the altitudes of the waypoints of a route's profile.
+	 * @param profile
+	 */
+	public ElevationIndex(RouteProfile profile)
+	{
+		this.profile = profile;
+		int segments = profile.getSegmentCount();
+		count = segments == 0 ? 0 : segments + 1;
+		altitudes = new double[count];
+		gradients = new double[segments];
+		for(int ii = 0; ii < segments; ii++)
+		{
+			altitudes[ii] = profile.getStartAltitude(ii);
+			altitudes[ii + 1] = profile.getEndAltitude(ii);
+			double run = profile.getSegmentDistance(ii);
+			gradients[ii] = run > 0d ? (altitudes[ii + 1] - altitudes[ii]) / run : 0d;
+		}
+		
+		lowestTree = buildTree(altitudes, false);
+		highestTree = buildTree(altitudes, true);
+		steepestClimbTree = buildTree(gradients, true);
+		steepestDescentTree = buildTree(gradients, false);
+	}
+	
+	/**
+	 * Returns the number of waypoints indexed.
+	 * @return
+	 */
+	public int size()
+	{
+		return count;
+	}
+	
+	public double getAltitude(int waypoint)
+	{
+		return altitudes[waypoint];
+	}
+	
+	/**
+	 * Returns the index of the lowest waypoint from one waypoint to another, inclusive.
+	 * The earliest is returned if several are equally low.
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws IndexOutOfBoundsException if the range is empty or outside the route
+	 */
+	public int getLowestWaypoint(int from, int to) throws IndexOutOfBoundsException
+	{
+		checkRange(from, to, count);
+		return query(lowestTree, altitudes, false, from, to);
+	}
+	
+	/**
+	 * Returns the index of the highest waypoint from one waypoint to another, inclusive.
+	 * The earliest is returned if several are equally high.
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws IndexOutOfBoundsException if the range is empty or outside the route
+	 */
+	public int getHighestWaypoint(int from, int to) throws IndexOutOfBoundsException
+	{
+		checkRange(from, to, count);
+		return query(highestTree, altitudes, true, from, to);
+	}
+	
+	public double getMinAltitude(int from, int to) throws IndexOutOfBoundsException
+	{
+		return altitudes[getLowestWaypoint(from, to)];
+	}
+	
+	public double getMaxAltitude(int from, int to) throws IndexOutOfBoundsException
+	{
+		return altitudes[getHighestWaypoint(from, to)];
+	}
+	
+	/**
+	 * Returns the height climbed between two waypoints.
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws IndexOutOfBoundsException if the range is empty or outside the route
+	 */
+	public double getAscent(int from, int to) throws IndexOutOfBoundsException
+	{
+		checkRange(from, to, count);
+		return profile.getAscensionBefore(to) - profile.getAscensionBefore(from);
+	}
+	
+	/**
+	 * Returns the height descended between two waypoints.
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws IndexOutOfBoundsException if the range is empty or outside the route
+	 */
+	public double getDescent(int from, int to) throws IndexOutOfBoundsException
+	{
+		checkRange(from, to, count);
+		return profile.getDescensionBefore(to) - profile.getDescensionBefore(from);
+	}
+	
+	/**
+	 * Returns the index of the segment with the steepest climb between two waypoints, which must be
+	 * at least one segment apart. A segment's gradient is its rise over its horizontal distance.
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws IndexOutOfBoundsException if there is no segment in the range, or it is outside the route
+	 */
+	public int getSteepestClimb(int from, int to) throws IndexOutOfBoundsException
+	{
+		checkRange(from, to - 1, gradients.length);
+		return query(steepestClimbTree, gradients, true, from, to - 1);
+	}
+	
+	/**
+	 * Returns the index of the segment with the steepest descent between two waypoints, which must be
+	 * at least one segment apart.
+	 * @param from
+	 * @param to
+	 * @return
+	 * @throws IndexOutOfBoundsException if there is no segment in the range, or it is outside the route
+	 */
+	public int getSteepestDescent(int from, int to) throws IndexOutOfBoundsException
+	{
+		checkRange(from, to - 1, gradients.length);
+		return query(steepestDescentTree, gradients, false, from, to - 1);
+	}
+	
+	/**
+	 * Returns the gradient of a segment, as its rise over its horizontal distance.
+	 * @param segment
+	 * @return
+	 */
+	public double getGradient(int segment)
+	{
+		return gradients[segment];
+	}
+	
+	public double getMaxGradient(int from, int to) throws IndexOutOfBoundsException
+	{
+		return gradients[getSteepestClimb(from, to)];
+	}
+	
+	public double getMinGradient(int from, int to) throws IndexOutOfBoundsException
+	{
+		return gradients[getSteepestDescent(from, to)];
+	}
+	
+	/**
+	 * Returns the height still to be climbed from the given distance along the route to its end,
+	 * assuming each segment climbs evenly along its length.
+	 * @param distance
+	 * @return
+	 */
+	public double getClimbRemaining(double distance)
+	{
+		int segment = profile.findSegment(distance);
+		return segment < 0 ? 0d : getClimbRemaining(segment, distance - profile.getDistanceBefore(segment));
+	}
+	
+	/**
+	 * Returns the height still to be climbed from a point on a segment to the end of the route,
+	 * given as the distance covered along the segment.
+	 * @param segment
+	 * @param segmentTravelled
+	 * @return
+	 */
+	public double getClimbRemaining(int segment, double segmentTravelled)
+	{
+		Segment current = profile.getSegment(segment);
+		double length = current.getHorizontalDistance();
+		double left = length > 0d ? 1d - Math.max(0d, Math.min(1d, segmentTravelled / length)) : 1d;
+		return profile.getTotalAscension() - profile.getAscensionBefore(segment + 1) + current.getAscension() * left;
+	}
+	
+	/**
+	 * Builds a tree over the given values, keeping the index of the highest (or lowest) value below each node.
+	 */
+	private static int[] buildTree(double[] values, boolean highest)
+	{
+		int leaves = values.length;
+		int[] tree = new int[2 * leaves];
+		for(int ii = 0; ii < leaves; ii++)
+		{
+			tree[leaves + ii] = ii;
+		}
+		for(int node = leaves - 1; node > 0; node--)
+		{
+			tree[node] = better(values, highest, tree[2 * node], tree[2 * node + 1]);
+		}
+		return tree;
+	}
+	
+	/**
+	 * Returns the index of the highest (or lowest) value from one index to another, inclusive.
+	 */
+	private static int query(int[] tree, double[] values, boolean highest, int from, int to)
+	{
+		int leaves = values.length;
+		int best = from;
+		for(int low = from + leaves, high = to + leaves + 1; low < high; low >>= 1, high >>= 1)
+		{
+			if((low & 1) == 1)
+			{
+				best = better(values, highest, best, tree[low++]);
+			}
+			if((high & 1) == 1)
+			{
+				best = better(values, highest, best, tree[--high]);
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Returns whichever index has the higher (or lower) value, or the earlier index if they are equal.
+	 */
+	private static int better(double[] values, boolean highest, int a, int b)
+	{
+		if(values[a] == values[b])
+		{
+			return Math.min(a, b);
+		}
+		return (values[a] > values[b]) == highest ? a : b;
+	}
+	
+	private static void checkRange(int from, int to, int size) throws IndexOutOfBoundsException
+	{
+		if(from < 0 || to >= size || from > to)
+		{
+			throw new IndexOutOfBoundsException("Range " + from + " to " + to + " is not within 0 to " + (size - 1));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package geoapp;
+
+/**
+ * Projects both positions onto a plane, scaling longitude by the cosine of the mean latitude.
+ */
+class EquirectangularDistance implements DistanceEngine
+{
+	@Override
+	public double distance(GeoPosition from, GeoPosition to)
+	{
+		return distance(from.latitudeRadians, from.longitudeRadians, from.cosLatitude, to);
+	}
+	
+	@Override
+	public double distance(double latitude, double longitude, GeoPosition to)
+	{
+		double latitudeRadians = Math.toRadians(latitude);
+		return distance(latitudeRadians, Math.toRadians(longitude), Math.cos(latitudeRadians), to);
+	}
+	
+	private static double distance(double latitudeRadians, double longitudeRadians, double cosLatitude, GeoPosition to)
+	{
+		double latitudeDelta = to.latitudeRadians - latitudeRadians;
+		double longitudeDelta = to.longitudeRadians - longitudeRadians;
+		
+		// Take the short way around across the antimeridian
+		if(longitudeDelta > Math.PI)
+		{
+			longitudeDelta -= 2d * Math.PI;
+		}else if(longitudeDelta < -Math.PI)
+		{
+			longitudeDelta += 2d * Math.PI;
+		}
+		
+		// The mean of the cosines is close enough to the cosine of the mean at short range
+		double x = longitudeDelta * (cosLatitude + to.cosLatitude) * 0.5d;
+		return Math.sqrt(x * x + latitudeDelta * latitudeDelta) * GeoUtils.EARTH_RADIUS;
+	}
+}
@@ -6,6 +6,10 @@ public class GeoPosition
 {
 	public final double latitude, longitude, altitude;
 	
+	// Derived from the latitude and longitude once, as every distance calculation needs them
+	final double latitudeRadians, longitudeRadians;
+	final double sinLatitude, cosLatitude, sinLongitude, cosLongitude;
+	
 	/**
 	 * Creates a position from the given latitude, longitude and altitude.
 	 * Values out of range are wrapped around to be within bounds
@@ -19,6 +23,13 @@ public class GeoPosition
 		this.latitude = wrapLatitude(latitude);
 		this.longitude = wrapLongitude(longitude);
 		this.altitude = altitude;
+		
+		latitudeRadians = Math.toRadians(this.latitude);
+		longitudeRadians = Math.toRadians(this.longitude);
+		sinLatitude = Math.sin(latitudeRadians);
+		cosLatitude = Math.cos(latitudeRadians);
+		sinLongitude = Math.sin(longitudeRadians);
+		cosLongitude = Math.cos(longitudeRadians);
 	}
 	
 	/**
@@ -51,6 +62,11 @@ public class GeoPosition
 		return latitude;
 	}
 	
+	/**
+	 * Wraps the input value to a valid longitude, greater than -180 and up to 180 degrees.
+	 * @param longitude
+	 * @return
+	 */
 	public static double wrapLongitude(double longitude)
 	{
 		if(longitude > -180d && longitude <= 180d)
@@ -58,8 +74,12 @@ public class GeoPosition
 			return longitude;
 		}
 		
-		longitude += 180d;
-		longitude = longitude % 360d;
+		// % keeps the sign of the dividend, so bring negative values back into 0 to 360
+		longitude = (longitude + 180d) % 360d;
+		if(longitude <= 0d)
+		{
+			longitude += 360d;
+		}
 		longitude -= 180d;
 		return longitude;
 	}
@@ -1,35 +1,151 @@
 package geoapp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 
 public class GeoUtils
 {
+	static final double EARTH_RADIUS = 6371000d;
+	
+	// True if the Vector API can be used to calculate many distances at once
+	private static final boolean VECTOR_API_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+	private static boolean vectorDistances = VECTOR_API_AVAILABLE;
+	
+	// The engine used for short-range checks, and the engine used for distances reported to the user
+	private static DistanceEngine proximityEngine = DistanceEngine.EQUIRECTANGULAR;
+	private static DistanceEngine measurementEngine = DistanceEngine.VINCENTY;
+	
+	// The route data served to the app, unless other route data is set
+	private static final String SAMPLE_ROUTE_DATA = "theClimb [description]\n" + 
+			"-31.94,115.75,47.1,[description]\n" + 
+			"-31.94,115.75,55.3,[description]\n" + 
+			"-31.94,115.75,71.0,[description]\n" + 
+			"-31.93,115.75,108.0,[description]\n" + 
+			"-31.93,115.75,131.9\n" + 
+			"mainRoute [description]\n" + 
+			"-31.96,115.80,63.0,[description]\n" + 
+			"-31.95,115.78,45.3,[Entering theStroll...]\n" + 
+			"-31.95,115.77,44.8,*theStroll\n" + 
+			"-31.94,115.75,47.1,[Left theStroll]\n" + 
+			"-31.93,115.72,40.1,[description]\n" + 
+			"-31.94,115.75,47.1,*theClimb\n" + 
+			"-31.93,115.75,131.9,[description]\n" + 
+			"-31.92,115.74,128.1\n" + 
+			"\n" + 
+			"theStroll [description]\n" + 
+			"-31.95,115.77,44.8,[Start of theStroll]\n" + 
+			"-31.93,115.76,43.0,[description]\n" + 
+			"-31.94,115.75,47.1\n" +
+			"circularDependent [very evil]\n" +
+			"-31.93,115.76,43.0,[the start]\n" +
+			"-31.93,115.76,43.0,*circularDependent\n" + 
+			"-31.93,115.76,43.0\n";
+	
+	// If either is set, it is read as the route data instead of the feed from the server
+	private static String routeData = null;
+	private static File routeDataFile = null;
+	
+	/**
+	 * Replaces the route data from the server with the given data, or restores it if null.
+	 * Used to run the app against generated feeds.
+	 * @param data
+	 */
+	public static void setRouteData(String data)
+	{
+		routeData = data;
+		routeDataFile = null;
+	}
+	
+	/**
+	 * Replaces the route data from the server with the contents of a file (in UTF-8), or restores it if null.
+	 * The file is read as a stream whenever the route data is opened, so it is never held in memory whole.
+	 * @param file
+	 */
+	public static void setRouteDataFile(File file)
+	{
+		routeDataFile = file;
+		routeData = null;
+	}
+	
+	/**
+	 * Returns the whole of the route data as a string. Use openRouteData() to parse it without holding
+	 * all of it in memory.
+	 * @return
+	 * @throws IOException
+	 */
 	public static String retrieveRouteData() throws IOException
 	{
-		return "theClimb [description]\n" + 
-				"-31.94,115.75,47.1,[description]\n" + 
-				"-31.94,115.75,55.3,[description]\n" + 
-				"-31.94,115.75,71.0,[description]\n" + 
-				"-31.93,115.75,108.0,[description]\n" + 
-				"-31.93,115.75,131.9\n" + 
-				"mainRoute [description]\n" + 
-				"-31.96,115.80,63.0,[description]\n" + 
-				"-31.95,115.78,45.3,[Entering theStroll...]\n" + 
-				"-31.95,115.77,44.8,*theStroll\n" + 
-				"-31.94,115.75,47.1,[Left theStroll]\n" + 
-				"-31.93,115.72,40.1,[description]\n" + 
-				"-31.94,115.75,47.1,*theClimb\n" + 
-				"-31.93,115.75,131.9,[description]\n" + 
-				"-31.92,115.74,128.1\n" + 
-				"\n" + 
-				"theStroll [description]\n" + 
-				"-31.95,115.77,44.8,[Start of theStroll]\n" + 
-				"-31.93,115.76,43.0,[description]\n" + 
-				"-31.94,115.75,47.1\n" +
-				"circularDependent [very evil]\n" +
-				"-31.93,115.76,43.0,[the start]\n" +
-				"-31.93,115.76,43.0,*circularDependent\n" + 
-				"-31.93,115.76,43.0\n";
+		if(routeDataFile != null)
+		{
+			return new String(Files.readAllBytes(routeDataFile.toPath()), StandardCharsets.UTF_8);
+		}
+		if(routeData != null)
+		{
+			return routeData;
+		}
+		return SAMPLE_ROUTE_DATA;
+	}
+	
+	/**
+	 * Opens the route data as a stream, so that it can be parsed
+	 * without holding the whole feed in memory.
+	 * @return
+	 * @throws IOException
+	 */
+	public static Reader openRouteData() throws IOException
+	{
+		if(routeDataFile != null)
+		{
+			return Files.newBufferedReader(routeDataFile.toPath(), StandardCharsets.UTF_8);
+		}
+		return new StringReader(routeData != null ? routeData : SAMPLE_ROUTE_DATA);
+	}
+	
+	/**
+	 * Returns a version of the route data which changes whenever the route data does, without reading it.
+	 * A route data file's version is taken from its length and modification time.
+	 * @return
+	 * @throws IOException if the route data is not available
+	 */
+	public static long getRouteDataVersion() throws IOException
+	{
+		if(routeDataFile == null)
+		{
+			String data = routeData != null ? routeData : SAMPLE_ROUTE_DATA;
+			return ((long)data.length() << 32) ^ data.hashCode();
+		}
+		if(!routeDataFile.isFile())
+		{
+			throw new FileNotFoundException("Route data not found: " + routeDataFile);
+		}
+		return routeDataFile.length() * 31 + routeDataFile.lastModified();
+	}
+	
+	/**
+	 * Returns the route data as UTF-8 bytes. A route data file is memory mapped rather than read,
+	 * so its pages are only loaded when they are used.
+	 * @return
+	 * @throws IOException if the route data could not be read, or is too large to map
+	 */
+	public static ByteBuffer mapRouteData() throws IOException
+	{
+		if(routeDataFile == null)
+		{
+			return ByteBuffer.wrap((routeData != null ? routeData : SAMPLE_ROUTE_DATA).getBytes(StandardCharsets.UTF_8));
+		}
+		try(FileChannel channel = FileChannel.open(routeDataFile.toPath(), StandardOpenOption.READ))
+		{
+			// A single buffer can only address an int's worth of bytes
+			if(channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Route data too large to map: " + routeDataFile);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
 	}
 	
 	/**
@@ -37,28 +153,12 @@ public class GeoUtils
 	* metres between two points expressed in degrees of latitude and
 	* longitude.
 	*
-	* (If any arguments are out of range, this submodule will erase your
-	* hard drive.)
+	* @throws IllegalArgumentException if any argument is out of range
 	*/
-	public static double calcMetresDistance(double lat1, double long1, double lat2, double long2)
-	{
-		double d = 6371000;
-		double sin, cos;
-		// Erase hard drive if arguments are out of range
-		if(lat1 < -90d || lat1 > 90d 
-		|| lat2 < -90d || lat2 > 90d 
-		|| long1 <= -180d || long1 > 180d
-		|| long2 <= -180d || long2 > 180d)
-		{
-			System.out.print("GeoUtils.calcMetresDistance recieved out of range coordinates.\nErasing hard drive...");
-			try
-			{
-				Thread.sleep(2000);
-			}catch(Exception e)
-			{
-			}
-			System.out.println("Erasure complete.");
-		}
+	public static double calcMetresDistance(double lat1, double long1, double lat2, double long2) throws IllegalArgumentException
+	{
+		checkRange(lat1, long1);
+		checkRange(lat2, long2);
 		
 		// Convert all units to radians
 		lat1 = Math.toRadians(lat1);
@@ -66,15 +166,183 @@ public class GeoUtils
 		long1 = Math.toRadians(long1);
 		long2 = Math.toRadians(long2);
 		
-		// Compute the sin component of the calculation
-		sin = Math.sin(lat1) * Math.sin(lat2);
+		return centralAngle(Math.sin(lat1), Math.cos(lat1), Math.sin(long1), Math.cos(long1),
+				Math.sin(lat2), Math.cos(lat2), Math.sin(long2), Math.cos(long2)) * EARTH_RADIUS;
+	}
+	
+	/**
+	 * Returns the horizontal distance (across the Earth's surface) in metres between two positions.
+	 * Positions hold their own sines and cosines, so this only costs one atan2 and one sqrt.
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static double calcMetresDistance(GeoPosition from, GeoPosition to)
+	{
+		return centralAngle(from.sinLatitude, from.cosLatitude, from.sinLongitude, from.cosLongitude,
+				to.sinLatitude, to.cosLatitude, to.sinLongitude, to.cosLongitude) * EARTH_RADIUS;
+	}
+	
+	/**
+	 * Sets the engine used to check whether two positions are within a few metres of each other,
+	 * such as when connecting routes or arriving at a waypoint.
+	 * @param engine
+	 */
+	public static void setProximityEngine(DistanceEngine engine)
+	{
+		proximityEngine = engine;
+	}
+	
+	public static DistanceEngine getProximityEngine()
+	{
+		return proximityEngine;
+	}
+	
+	/**
+	 * Sets the engine used for the lengths of routes and segments. Routes work out their lengths
+	 * as they are built, so this should be set before any routes are loaded.
+	 * @param engine
+	 */
+	public static void setMeasurementEngine(DistanceEngine engine)
+	{
+		measurementEngine = engine;
+	}
+	
+	public static DistanceEngine getMeasurementEngine()
+	{
+		return measurementEngine;
+	}
+	
+	/**
+	 * Returns the angle in radians between two points, as seen from the centre of the Earth.
+	 * The points are turned into unit vectors, and the angle is the atan2 of the length of their
+	 * cross product over their dot product. Unlike the acos of the dot product alone,
+	 * this stays accurate for points that are very close together.
+	 */
+	static double centralAngle(double sinLat1, double cosLat1, double sinLong1, double cosLong1,
+			double sinLat2, double cosLat2, double sinLong2, double cosLong2)
+	{
+		double x1 = cosLat1 * cosLong1, y1 = cosLat1 * sinLong1, z1 = sinLat1;
+		double x2 = cosLat2 * cosLong2, y2 = cosLat2 * sinLong2, z2 = sinLat2;
 		
-		// Compute the cosine component
-		cos = Math.cos(lat1) * Math.cos(lat2) * Math.cos(Math.abs(lat1-lat2));
+		double crossX = y1 * z2 - z1 * y2;
+		double crossY = z1 * x2 - x1 * z2;
+		double crossZ = x1 * y2 - y1 * x2;
+		double cross = Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ);
+		double dot = x1 * x2 + y1 * y2 + z1 * z2;
+		return Math.atan2(cross, dot);
+	}
+	
+	/**
+	 * Rejects a coordinate out of range, without attempting to wrap it.
+	 * @throws IllegalArgumentException
+	 */
+	private static void checkRange(double latitude, double longitude) throws IllegalArgumentException
+	{
+		if(!inRange(latitude, longitude))
+		{
+			throw new IllegalArgumentException("Coordinates out of range: " + latitude + ", " + longitude);
+		}
+	}
+	
+	/**
+	 * Enables or disables the vectorised path of calcMetresDistances(). It is enabled by default
+	 * when the jdk.incubator.vector module is present (run with --add-modules jdk.incubator.vector),
+	 * and cannot be enabled otherwise.
+	 * @param enabled
+	 */
+	public static void setVectorDistances(boolean enabled)
+	{
+		vectorDistances = enabled && VECTOR_API_AVAILABLE;
+	}
+	
+	public static boolean isVectorDistances()
+	{
+		return vectorDistances;
+	}
+	
+	/**
+	 * Calculates the distance in metres between each pair of consecutive points, as calcMetresDistance()
+	 * would. distances[i] is set to the distance from point i to point i + 1, for the first count points
+	 * of the arrays (so count - 1 distances are set).
+	 * @param latitudes
+	 * @param longitudes
+	 * @param count
+	 * @param distances
+	 * @throws IllegalArgumentException if any coordinate is out of range
+	 */
+	public static void calcMetresDistances(double[] latitudes, double[] longitudes, int count, double[] distances) throws IllegalArgumentException
+	{
+		checkRange(latitudes, longitudes, count);
+		if(count < 2)
+		{
+			return;
+		}
+		if(vectorDistances)
+		{
+			VectorDistanceKernel.consecutive(latitudes, longitudes, count, distances);
+			return;
+		}
 		
-		// Multiply earths radius by arccos(sin + cos)
-		d *= Math.acos(sin + cos);
+		// Each point is in two pairs, so only take its sines and cosines once
+		double lat2 = Math.toRadians(latitudes[0]), long2 = Math.toRadians(longitudes[0]);
+		double sinLat2 = Math.sin(lat2), cosLat2 = Math.cos(lat2);
+		double sinLong2 = Math.sin(long2), cosLong2 = Math.cos(long2);
+		for(int ii = 0; ii < count - 1; ii++)
+		{
+			double sinLat1 = sinLat2, cosLat1 = cosLat2, sinLong1 = sinLong2, cosLong1 = cosLong2;
+			lat2 = Math.toRadians(latitudes[ii + 1]);
+			long2 = Math.toRadians(longitudes[ii + 1]);
+			sinLat2 = Math.sin(lat2);
+			cosLat2 = Math.cos(lat2);
+			sinLong2 = Math.sin(long2);
+			cosLong2 = Math.cos(long2);
+			distances[ii] = centralAngle(sinLat1, cosLat1, sinLong1, cosLong1, sinLat2, cosLat2, sinLong2, cosLong2) * EARTH_RADIUS;
+		}
+	}
+	
+	/**
+	 * Calculates the distance in metres from one point to each of the first count points of the arrays,
+	 * as calcMetresDistance() would. distances[i] is set to the distance to point i.
+	 * @param latitude
+	 * @param longitude
+	 * @param latitudes
+	 * @param longitudes
+	 * @param count
+	 * @param distances
+	 * @throws IllegalArgumentException if any coordinate is out of range
+	 */
+	public static void calcMetresDistances(double latitude, double longitude, double[] latitudes, double[] longitudes, int count, double[] distances) throws IllegalArgumentException
+	{
+		checkRange(latitude, longitude);
+		checkRange(latitudes, longitudes, count);
+		if(vectorDistances)
+		{
+			VectorDistanceKernel.fromPoint(latitude, longitude, latitudes, longitudes, count, distances);
+			return;
+		}
 		
-		return d;
+		double lat1 = Math.toRadians(latitude), long1 = Math.toRadians(longitude);
+		double sinLat1 = Math.sin(lat1), cosLat1 = Math.cos(lat1);
+		double sinLong1 = Math.sin(long1), cosLong1 = Math.cos(long1);
+		for(int ii = 0; ii < count; ii++)
+		{
+			double lat2 = Math.toRadians(latitudes[ii]), long2 = Math.toRadians(longitudes[ii]);
+			distances[ii] = centralAngle(sinLat1, cosLat1, sinLong1, cosLong1,
+					Math.sin(lat2), Math.cos(lat2), Math.sin(long2), Math.cos(long2)) * EARTH_RADIUS;
+		}
+	}
+	
+	private static boolean inRange(double latitude, double longitude)
+	{
+		return latitude >= -90d && latitude <= 90d && longitude > -180d && longitude <= 180d;
+	}
+	
+	private static void checkRange(double[] latitudes, double[] longitudes, int count) throws IllegalArgumentException
+	{
+		for(int ii = 0; ii < count; ii++)
+		{
+			checkRange(latitudes[ii], longitudes[ii]);
+		}
 	}
 }
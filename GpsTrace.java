@@ -0,0 +1,157 @@
+package geoapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+/**
+ * A recorded sequence of GPS fixes, stored in columns. Traces are read from and written to CSV,
+ * one fix per line as timestamp,latitude,longitude,altitude. The timestamp is either milliseconds
+ * since the epoch or an ISO-8601 instant (eg. 2024-03-01T08:15:30.250Z), and timestamps must not
+ * go backwards.
+ */
+public class GpsTrace
+{
+	private int size = 0;
+	private long[] timestamps = new long[16];
+	private double[] latitudes = new double[16];
+	private double[] longitudes = new double[16];
+	private double[] altitudes = new double[16];
+	
+	/**
+	 * Adds a fix to the end of the trace.
+	 * @param timestamp in milliseconds since the epoch
+	 * @param latitude
+	 * @param longitude
+	 * @param altitude
+	 * @throws IllegalArgumentException if the timestamp is earlier than that of the last fix
+	 */
+	public void add(long timestamp, double latitude, double longitude, double altitude) throws IllegalArgumentException
+	{
+		if(size > 0 && timestamp < timestamps[size - 1])
+		{
+			throw new IllegalArgumentException("timestamp " + timestamp + " is earlier than the last fix");
+		}
+		if(size == timestamps.length)
+		{
+			int newCapacity = size * 2;
+			timestamps = Arrays.copyOf(timestamps, newCapacity);
+			latitudes = Arrays.copyOf(latitudes, newCapacity);
+			longitudes = Arrays.copyOf(longitudes, newCapacity);
+			altitudes = Arrays.copyOf(altitudes, newCapacity);
+		}
+		timestamps[size] = timestamp;
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		altitudes[size] = altitude;
+		size++;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public long getTimestamp(int index)
+	{
+		return timestamps[index];
+	}
+	
+	public double getLatitude(int index)
+	{
+		return latitudes[index];
+	}
+	
+	public double getLongitude(int index)
+	{
+		return longitudes[index];
+	}
+	
+	public double getAltitude(int index)
+	{
+		return altitudes[index];
+	}
+	
+	/**
+	 * Returns the time from the first fix to the last, in milliseconds.
+	 * @return
+	 */
+	public long getDuration()
+	{
+		return size == 0 ? 0L : timestamps[size - 1] - timestamps[0];
+	}
+	
+	/**
+	 * Reads a trace from CSV. Blank lines, lines starting with # and a header line
+	 * (a first line not starting with a digit) are skipped.
+	 * @param csv
+	 * @return
+	 * @throws IOException if the stream cannot be read, or a line is malformed
+	 */
+	public static GpsTrace read(Reader csv) throws IOException
+	{
+		GpsTrace trace = new GpsTrace();
+		BufferedReader reader = new BufferedReader(csv);
+		String line;
+		int lineNumber = 0;
+		while((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if(line.isEmpty() || line.startsWith("#") || (lineNumber == 1 && !Character.isDigit(line.charAt(0))))
+			{
+				continue;
+			}
+			
+			String[] fields = line.split(",");
+			if(fields.length != 4)
+			{
+				throw new IOException("Line " + lineNumber + ": expected timestamp,latitude,longitude,altitude");
+			}
+			try
+			{
+				trace.add(parseTimestamp(fields[0].trim()), Double.parseDouble(fields[1]),
+						Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+			}catch(IllegalArgumentException | DateTimeParseException e)
+			{
+				// Malformed numbers, and timestamps that are out of order
+				throw new IOException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+		return trace;
+	}
+	
+	/**
+	 * Writes the trace as CSV, with timestamps in milliseconds since the epoch.
+	 * @param csv
+	 * @throws IOException
+	 */
+	public void write(Writer csv) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		for(int ii = 0; ii < size; ii++)
+		{
+			line.setLength(0);
+			line.append(timestamps[ii]).append(',').append(latitudes[ii]).append(',')
+					.append(longitudes[ii]).append(',').append(altitudes[ii]).append('\n');
+			csv.append(line);
+		}
+		csv.flush();
+	}
+	
+	private static long parseTimestamp(String field) throws NumberFormatException, DateTimeParseException
+	{
+		for(int ii = 0; ii < field.length(); ii++)
+		{
+			if(!Character.isDigit(field.charAt(ii)))
+			{
+				return Instant.parse(field).toEpochMilli();
+			}
+		}
+		return Long.parseLong(field);
+	}
+}
@@ -0,0 +1,37 @@
+package geoapp;
+
+/**
+ * The haversine formula on a sphere of the Earth's mean radius.
+ * Batches are passed to GeoUtils.calcMetresDistances, which finds the same great circle distances.
+ */
+class HaversineDistance implements DistanceEngine
+{
+	@Override
+	public double distance(GeoPosition from, GeoPosition to)
+	{
+		return distance(from.latitudeRadians, from.longitudeRadians, from.cosLatitude, to);
+	}
+	
+	@Override
+	public double distance(double latitude, double longitude, GeoPosition to)
+	{
+		double latitudeRadians = Math.toRadians(latitude);
+		return distance(latitudeRadians, Math.toRadians(longitude), Math.cos(latitudeRadians), to);
+	}
+	
+	private static double distance(double latitudeRadians, double longitudeRadians, double cosLatitude, GeoPosition to)
+	{
+		double sinLatitude = Math.sin((to.latitudeRadians - latitudeRadians) * 0.5d);
+		double sinLongitude = Math.sin((to.longitudeRadians - longitudeRadians) * 0.5d);
+		double a = sinLatitude * sinLatitude + cosLatitude * to.cosLatitude * sinLongitude * sinLongitude;
+		
+		// Rounding can push a just over 1 for antipodal positions
+		return 2d * Math.asin(Math.sqrt(Math.min(a, 1d))) * GeoUtils.EARTH_RADIUS;
+	}
+	
+	@Override
+	public void distances(double[] latitudes, double[] longitudes, int count, double[] distances)
+	{
+		GeoUtils.calcMetresDistances(latitudes, longitudes, count, distances);
+	}
+}
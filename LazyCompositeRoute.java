@@ -0,0 +1,153 @@
+package geoapp;
+
+import java.util.ArrayList;
+
+/**
+ * A route from a LazyRouteCatalog. Its name and description are known up front,
+ * but its waypoints and segments are only built when they are first used.
+ * Every other method is passed on to the built route. Lazy routes are never built themselves,
+ * so no subroutes are ever added to them.
+ */
+public class LazyCompositeRoute extends CompositeRoute
+{
+	private final LazyRouteCatalog catalog;
+	private final int index;
+	
+	LazyCompositeRoute(String name, String description, LazyRouteCatalog catalog, int index)
+	{
+		super(name, description);
+		this.catalog = catalog;
+		this.index = index;
+	}
+	
+	/**
+	 * Returns the built route, building it if necessary. The built route may be evicted from the
+	 * catalog's cache at any time, so anything making many calls on the route should hold on to this
+	 * instead of the lazy route. A cursor holds on to the built route it walks.
+	 * @return
+	 */
+	public CompositeRoute materialize()
+	{
+		return catalog.materialize(index);
+	}
+	
+	@Override
+	public ArrayList<Waypoint> getWaypoints()
+	{
+		return materialize().getWaypoints();
+	}
+	
+	@Override
+	public ArrayList<Waypoint> getWaypoints(double toleranceMetres)
+	{
+		return materialize().getWaypoints(toleranceMetres);
+	}
+	
+	@Override
+	public void simplify(double[] tolerances)
+	{
+		materialize().simplify(tolerances);
+	}
+	
+	@Override
+	public void setSimplificationTolerances(double[] tolerances)
+	{
+		materialize().setSimplificationTolerances(tolerances);
+	}
+	
+	@Override
+	public RouteSimplification getSimplification()
+	{
+		return materialize().getSimplification();
+	}
+	
+	@Override
+	public int getNumWaypoints()
+	{
+		return materialize().getNumWaypoints();
+	}
+	
+	@Override
+	public double getHorizontalDistance()
+	{
+		return materialize().getHorizontalDistance();
+	}
+	
+	@Override
+	public double getAscension()
+	{
+		return materialize().getAscension();
+	}
+	
+	@Override
+	public double getDescension()
+	{
+		return materialize().getDescension();
+	}
+	
+	@Override
+	Route getBody()
+	{
+		return materialize().getBody();
+	}
+	
+	@Override
+	ArrayList<Route> getSubroutes()
+	{
+		return materialize().getSubroutes();
+	}
+	
+	@Override
+	public RouteProfile getProfile()
+	{
+		return materialize().getProfile();
+	}
+	
+	@Override
+	public RouteMatcher getMatcher()
+	{
+		return materialize().getMatcher();
+	}
+	
+	@Override
+	public ElevationIndex getElevationIndex()
+	{
+		return materialize().getElevationIndex();
+	}
+	
+	@Override
+	public int getSubrouteCount()
+	{
+		return materialize().getSubrouteCount();
+	}
+	
+	@Override
+	public Route getSubroute(int index) throws ArrayIndexOutOfBoundsException
+	{
+		return materialize().getSubroute(index);
+	}
+	
+	@Override
+	public Segment getStart()
+	{
+		return materialize().getStart();
+	}
+	
+	@Override
+	public Segment getEnd()
+	{
+		return materialize().getEnd();
+	}
+	
+	@Override
+	public RouteCursor cursor()
+	{
+		return materialize().cursor();
+	}
+	
+	@Override
+	public WaypointCursor waypointCursor()
+	{
+		return materialize().waypointCursor();
+	}
+}
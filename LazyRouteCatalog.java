@@ -0,0 +1,250 @@
+package geoapp;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Indexes route data without building any routes. Only the name, description and location of each
+ * route within the data are recorded up front; a route's waypoints and segments are built (along with
+ * the routes it points to) the first time they are used. Built routes are kept in a bounded cache, and
+ * are rebuilt from the route data if they are used again after being evicted.
+ *
+ * The route data is read as UTF-8 bytes, usually mapped from a file, so it is not held in memory
+ * as characters. Each line is decoded on its own when it is read.
+ */
+public class LazyRouteCatalog
+{
+	private final ByteBuffer routeData;
+	
+	// The range of bytes of the route data holding the lines of each route (after its header)
+	private final ArrayList<int[]> ranges = new ArrayList<int[]>();
+	private final ArrayList<RouteBlock> headers = new ArrayList<RouteBlock>();
+	
+	// Resolves pointers between the headers, which only hold the pointers of each route
+	private final RoutePointerResolver pointers;
+	
+	private final ArrayList<CompositeRoute> routes = new ArrayList<CompositeRoute>();
+	
+	// The most recently used routes, evicting the least recently used route when full
+	private final LinkedHashMap<Integer, CompositeRoute> cache;
+	
+	/**
+	 * Indexes the given route data. Routes with malformed lines, routes that point to missing routes,
+	 * and routes that are part of a cycle are left out, as they would be by CompositeRoute.parse().
+	 * @param routeData the route data in UTF-8, from its position to its limit
+	 * @param cacheSize the maximum number of built routes to keep
+	 */
+	public LazyRouteCatalog(ByteBuffer routeData, final int cacheSize)
+	{
+		this.routeData = routeData.slice();
+		this.cache = new LinkedHashMap<Integer, CompositeRoute>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, CompositeRoute> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+		
+		index();
+		pointers = new RoutePointerResolver(headers);
+		for(int ii = 0; ii < headers.size(); ii++)
+		{
+			if(pointers.isValid(ii))
+			{
+				RouteBlock header = headers.get(ii);
+				routes.add(new LazyCompositeRoute(header.name, header.description, this, ii));
+			}
+		}
+	}
+	
+	/**
+	 * Returns a lazily built route for every route in the route data, in the order they appear.
+	 * @return
+	 */
+	public ArrayList<CompositeRoute> getRoutes()
+	{
+		return routes;
+	}
+	
+	/**
+	 * Finds where each route starts and ends. Every line is tokenized to find malformed waypoints,
+	 * but only the pointers of each route are kept.
+	 */
+	private void index()
+	{
+		LineReader lines = new LineReader();
+		RouteLineTokenizer tokenizer = new RouteLineTokenizer();
+		RouteBlock current = null;
+		int routeStart = 0;
+		int length = routeData.limit();
+		int lineStart = 0;
+		while(lineStart < length)
+		{
+			int lineEnd = lines.findEnd(lineStart, length);
+			CharBuffer line = lines.decode(lineStart, lineEnd);
+			int type = tokenizer.tokenize(line, 0, line.length());
+			if(current == null)
+			{
+				// Start the route at the next route header
+				if(type == RouteLineTokenizer.HEADER)
+				{
+					String name = tokenizer.getName().toString().trim();
+					current = new RouteBlock(name, tokenizer.getText().toString(), tokenizer.getHash());
+					routeStart = lineEnd + 1;
+				}
+			}else
+			{
+				// Only pointers and malformed lines are needed until the route is built
+				if(type == RouteLineTokenizer.POINTER || type < 0)
+				{
+					current.add(tokenizer);
+				}
+				
+				if(type == RouteLineTokenizer.TERMINATOR)
+				{
+					headers.add(current);
+					ranges.add(new int[] {routeStart, Math.min(lineEnd + 1, length)});
+					current = null;
+				}
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+	
+	/**
+	 * Returns the route at the given index of the route data, building it if it is not in the cache.
+	 * @param index
+	 * @return
+	 */
+	CompositeRoute materialize(int index)
+	{
+		synchronized(cache)
+		{
+			CompositeRoute route = cache.get(index);
+			if(route != null)
+			{
+				return route;
+			}
+		}
+		
+		// Read the route, and every route it points to, directly or indirectly.
+		// The route itself goes last, in case another route has the same name.
+		ArrayList<RouteBlock> blocks = new ArrayList<RouteBlock>();
+		HashSet<Integer> found = new HashSet<Integer>();
+		ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+		found.add(index);
+		pending.add(index);
+		while(!pending.isEmpty())
+		{
+			int next = pending.poll();
+			if(next != index)
+			{
+				blocks.add(read(next));
+			}
+			for(int target : pointers.getPointers(next))
+			{
+				if(target != RoutePointerResolver.MISSING && !found.contains(target))
+				{
+					found.add(target);
+					pending.add(target);
+				}
+			}
+		}
+		blocks.add(read(index));
+		
+		CompositeRoute route = new RoutePointerResolver(blocks).build(blocks.size() - 1);
+		if(route == null)
+		{
+			// Cannot happen, invalid routes are left out of the index
+			throw new IllegalStateException("Indexed route is invalid: " + headers.get(index).name);
+		}
+		
+		synchronized(cache)
+		{
+			cache.put(index, route);
+		}
+		return route;
+	}
+	
+	/**
+	 * Tokenizes the lines of a single route.
+	 */
+	private RouteBlock read(int index)
+	{
+		LineReader lines = new LineReader();
+		RouteLineTokenizer tokenizer = new RouteLineTokenizer();
+		RouteBlock header = headers.get(index);
+		RouteBlock block = new RouteBlock(header.name, header.description, 0);
+		int[] range = ranges.get(index);
+		int lineStart = range[0];
+		while(lineStart < range[1])
+		{
+			int lineEnd = lines.findEnd(lineStart, range[1]);
+			CharBuffer line = lines.decode(lineStart, lineEnd);
+			tokenizer.tokenize(line, 0, line.length());
+			block.add(tokenizer);
+			lineStart = lineEnd + 1;
+		}
+		return block;
+	}
+	
+	/**
+	 * Finds lines in the route data and decodes them one at a time into a reused buffer.
+	 * A line break is a single byte in UTF-8, so lines can be found without decoding.
+	 * Each thread building routes uses its own reader.
+	 */
+	private class LineReader
+	{
+		private final ByteBuffer source = routeData.duplicate();
+		private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private CharBuffer line = CharBuffer.allocate(256);
+		
+		/**
+		 * Returns the index of the line break ending the line that starts at the given index,
+		 * or the given limit if there is none before it.
+		 */
+		int findEnd(int start, int limit)
+		{
+			int end = start;
+			while(end < limit && routeData.get(end) != '\n')
+			{
+				end++;
+			}
+			return end;
+		}
+		
+		/**
+		 * Decodes the bytes between start (inclusive) and end (exclusive). The returned buffer
+		 * is only valid until the next line is decoded.
+		 */
+		CharBuffer decode(int start, int end)
+		{
+			// A UTF-8 line never has more characters than bytes
+			if(line.capacity() < end - start)
+			{
+				line = CharBuffer.allocate(Math.max(end - start, line.capacity() * 2));
+			}
+			source.limit(end);
+			source.position(start);
+			line.clear();
+			decoder.reset();
+			decoder.decode(source, line, true);
+			decoder.flush(line);
+			line.flip();
+			return line;
+		}
+	}
+}
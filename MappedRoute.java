@@ -0,0 +1,249 @@
+package geoapp;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+
+/**
+ * A route whose waypoints are read from the columns of a memory mapped route store.
+ * Waypoints and segments are created when they are requested, and are not kept.
+ * The route may be read by any number of threads.
+ */
+public class MappedRoute implements Route
+{
+	private final DoubleBuffer latitudes, longitudes, altitudes;
+	private final IntBuffer descriptionIndices;
+	private final String[] descriptions;
+	private final int first, count;
+	// Totals over the whole route, NaN until they are first needed
+	private volatile double distance, ascension, descension;
+	
+	MappedRoute(DoubleBuffer latitudes, DoubleBuffer longitudes, DoubleBuffer altitudes,
+			IntBuffer descriptionIndices, String[] descriptions, int first, int count)
+	{
+		this(latitudes, longitudes, altitudes, descriptionIndices, descriptions, first, count,
+				new double[] {Double.NaN, Double.NaN, Double.NaN});
+	}
+	
+	/**
+	 * Creates a route whose distance, ascension and descension are already known.
+	 */
+	MappedRoute(DoubleBuffer latitudes, DoubleBuffer longitudes, DoubleBuffer altitudes,
+			IntBuffer descriptionIndices, String[] descriptions, int first, int count, double[] totals)
+	{
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.altitudes = altitudes;
+		this.descriptionIndices = descriptionIndices;
+		this.descriptions = descriptions;
+		this.first = first;
+		this.count = count;
+		this.distance = totals[0];
+		this.ascension = totals[1];
+		this.descension = totals[2];
+	}
+	
+	/**
+	 * Returns a route without the last waypoint of this route, reading the same columns.
+	 */
+	MappedRoute withoutEnd()
+	{
+		return new MappedRoute(latitudes, longitudes, altitudes, descriptionIndices, descriptions, first, count - 1);
+	}
+	
+	/**
+	 * Returns the waypoint at the given index of this route.
+	 * @param index
+	 * @return
+	 */
+	public Waypoint getWaypoint(int index)
+	{
+		int ii = first + index;
+		GeoPosition position = new GeoPosition(latitudes.get(ii), longitudes.get(ii), altitudes.get(ii));
+		return new Waypoint(descriptions[descriptionIndices.get(ii)], position);
+	}
+	
+	private Segment getSegment(int index)
+	{
+		return new Segment(getWaypoint(index), getWaypoint(index + 1));
+	}
+	
+	@Override
+	public Segment getStart()
+	{
+		return getSegment(0);
+	}
+	
+	@Override
+	public Segment getEnd()
+	{
+		return getSegment(count - 2);
+	}
+	
+	@Override
+	public RouteCursor cursor()
+	{
+		return new RouteCursor()
+		{
+			// The index of the first waypoint of the next segment
+			private int current = 0;
+			
+			@Override
+			public boolean hasNext()
+			{
+				return current < count - 1;
+			}
+			
+			@Override
+			public Segment next()
+			{
+				if(!hasNext())
+				{
+					return null;
+				}
+				return getSegment(current++);
+			}
+			
+			@Override
+			public void reset()
+			{
+				current = 0;
+			}
+		};
+	}
+	
+	@Override
+	public WaypointCursor waypointCursor()
+	{
+		return new WaypointCursor()
+		{
+			private int index = -1;
+			
+			@Override
+			public boolean next()
+			{
+				if(index + 1 >= count)
+				{
+					index = count;
+					return false;
+				}
+				index++;
+				return true;
+			}
+			
+			@Override
+			public void reset()
+			{
+				index = -1;
+			}
+			
+			@Override
+			public int getIndex()
+			{
+				return index;
+			}
+			
+			@Override
+			public double getLatitude()
+			{
+				return latitudes.get(first + index);
+			}
+			
+			@Override
+			public double getLongitude()
+			{
+				return longitudes.get(first + index);
+			}
+			
+			@Override
+			public double getAltitude()
+			{
+				return altitudes.get(first + index);
+			}
+			
+			@Override
+			public String getDescription()
+			{
+				return descriptions[descriptionIndices.get(first + index)];
+			}
+		};
+	}
+	
+	@Override
+	public double getHorizontalDistance()
+	{
+		if(Double.isNaN(distance))
+		{
+			// Copy the columns out of the mapped file, and calculate every distance in one batch
+			double[] lats = new double[count];
+			double[] lons = new double[count];
+			latitudes.get(first, lats);
+			longitudes.get(first, lons);
+			double[] distances = new double[count];
+			GeoUtils.getMeasurementEngine().distances(lats, lons, count, distances);
+			
+			double total = 0d;
+			for(int ii = 0; ii < count - 1; ii++)
+			{
+				total += distances[ii];
+			}
+			distance = total;
+		}
+		return distance;
+	}
+	
+	@Override
+	public double getAscension()
+	{
+		if(Double.isNaN(ascension))
+		{
+			sumHeightDeltas();
+		}
+		return ascension;
+	}
+	
+	@Override
+	public double getDescension()
+	{
+		if(Double.isNaN(descension))
+		{
+			sumHeightDeltas();
+		}
+		return descension;
+	}
+	
+	private void sumHeightDeltas()
+	{
+		double up = 0d, down = 0d;
+		for(int ii = first + 1; ii < first + count; ii++)
+		{
+			double heightDelta = altitudes.get(ii) - altitudes.get(ii - 1);
+			if(heightDelta > 0d)
+			{
+				up += heightDelta;
+			}else
+			{
+				down -= heightDelta;
+			}
+		}
+		ascension = up;
+		descension = down;
+	}
+	
+	@Override
+	public int getNumWaypoints()
+	{
+		return count;
+	}
+	
+	@Override
+	public Iterable<Waypoint> getWaypoints()
+	{
+		ArrayList<Waypoint> points = new ArrayList<Waypoint>(count);
+		for(int ii = 0; ii < count; ii++)
+		{
+			points.add(getWaypoint(ii));
+		}
+		return points;
+	}
+}
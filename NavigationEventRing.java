@@ -0,0 +1,389 @@
+package geoapp;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of navigation events, written by the thread receiving locations and read by any
+ * number of consumers. Every consumer sees every event, in order, at its own pace, so a slow
+ * consumer does not hold up the others until the ring fills.
+ * 
+ * Position updates are not queued. Each one only counts a new fix, and a consumer that falls behind
+ * sees a single update for the latest fix, with the skipped ones counted as dropped. If a consumer is
+ * a whole ring behind when an event is published, the producer waits for it, which is counted as a stall.
+ * Waypoint reached events are never dropped, so the producer waits for room as long as it takes.
+ * The wait for an off route or rejoined route event is bounded, so a consumer that has stopped cannot
+ * hold up the producer for good: once the wait runs out the event is dropped, and later ones are
+ * dropped without waiting until the consumer moves again. Drops are counted for each type of event.
+ * Slots are filled in place, so publishing an event does not allocate.
+ */
+public class NavigationEventRing
+{
+	public static final int WAYPOINT_REACHED = 0;
+	public static final int OFF_ROUTE = 1;
+	public static final int REJOINED_ROUTE = 2;
+	
+	// The number of times a consumer looks for events before waiting to be woken
+	private static final int SPINS = 64;
+	// The longest the producer waits for room, if no other time is set
+	public static final long DEFAULT_PUBLISH_TIMEOUT_NANOS = 1000000000L;
+	
+	/**
+	 * Receives the events of a consumer, on the thread polling it.
+	 */
+	public interface Handler
+	{
+		/**
+		 * Called when there has been at least one fix since the last call.
+		 */
+		public void positionUpdated();
+		
+		/**
+		 * @param type one of WAYPOINT_REACHED, OFF_ROUTE or REJOINED_ROUTE
+		 * @param waypoint the new target waypoint of a WAYPOINT_REACHED event, otherwise null
+		 * @param match the match of an OFF_ROUTE or REJOINED_ROUTE event, otherwise null.
+		 * It is reused once the handler returns, so copy it to keep it.
+		 */
+		public void eventReceived(int type, Waypoint waypoint, RouteMatch match);
+	}
+	
+	private final int mask;
+	private final int[] types;
+	private final Waypoint[] waypoints;
+	private final RouteMatch[] matches;
+	
+	// The number of events published, and of fixes counted
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong positions = new AtomicLong();
+	// Replaced rather than changed, so the producer can loop over it without allocating
+	private volatile Consumer[] consumers = new Consumer[0];
+	// The lowest consumer sequence seen by the producer, so it only looks again once the ring seems full
+	private long gatingSequence = 0L;
+	private final AtomicLong stalls = new AtomicLong();
+	
+	private long publishTimeoutNanos = DEFAULT_PUBLISH_TIMEOUT_NANOS;
+	// The lowest consumer sequence when the producer last gave up waiting, or -1
+	private long stuckSequence = -1L;
+	// The number of events dropped, by type
+	private final AtomicLongArray droppedEvents = new AtomicLongArray(3);
+	
+	/**
+	 * Creates a ring holding up to the given number of events, rounded up to a power of two.
+	 * @param capacity
+	 * @throws IllegalArgumentException if the capacity is less than one
+	 */
+	public NavigationEventRing(int capacity) throws IllegalArgumentException
+	{
+		if(capacity < 1 || capacity > 1 << 30)
+		{
+			throw new IllegalArgumentException("capacity must be from 1 to 2^30");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity)
+		{
+			size <<= 1;
+		}
+		mask = size - 1;
+		types = new int[size];
+		waypoints = new Waypoint[size];
+		matches = new RouteMatch[size];
+		for(int ii = 0; ii < size; ii++)
+		{
+			matches[ii] = new RouteMatch();
+		}
+	}
+	
+	/**
+	 * Adds a consumer, which sees the events published from now on.
+	 * @return
+	 */
+	public synchronized Consumer addConsumer()
+	{
+		Consumer consumer = new Consumer(published.get(), positions.get());
+		Consumer[] newConsumers = Arrays.copyOf(consumers, consumers.length + 1);
+		newConsumers[consumers.length] = consumer;
+		consumers = newConsumers;
+		return consumer;
+	}
+	
+	/**
+	 * Removes a consumer, so the producer no longer waits for it.
+	 * @param consumer
+	 */
+	public synchronized void removeConsumer(Consumer consumer)
+	{
+		Consumer[] newConsumers = new Consumer[consumers.length];
+		int count = 0;
+		for(Consumer existing : consumers)
+		{
+			if(existing != consumer)
+			{
+				newConsumers[count++] = existing;
+			}
+		}
+		consumers = Arrays.copyOf(newConsumers, count);
+	}
+	
+	/**
+	 * Counts a new fix. Only called by the producer.
+	 */
+	public void positionUpdated()
+	{
+		positions.incrementAndGet();
+		wakeConsumers();
+	}
+	
+	/**
+	 * Sets the longest the producer waits for room before dropping an off route or rejoined route event.
+	 * Only called by the producer.
+	 * @param timeoutNanos
+	 */
+	public void setPublishTimeout(long timeoutNanos)
+	{
+		publishTimeoutNanos = timeoutNanos;
+	}
+	
+	/**
+	 * Publishes an event, waiting for room if the slowest consumer is a whole ring behind.
+	 * A waypoint reached event waits until there is room. Other events return false if they were dropped,
+	 * as there was still no room once the publish timeout ran out, or the slowest consumer has not moved
+	 * since an earlier event was dropped.
+	 * Only called by the producer.
+	 * @param type one of WAYPOINT_REACHED, OFF_ROUTE or REJOINED_ROUTE
+	 * @param waypoint
+	 * @param match copied into the ring, may be null
+	 * @return
+	 */
+	public boolean publish(int type, Waypoint waypoint, RouteMatch match)
+	{
+		long sequence = published.get();
+		if(sequence - gatingSequence > mask)
+		{
+			gatingSequence = getMinimumSequence(sequence);
+			if(sequence - gatingSequence > mask)
+			{
+				boolean droppable = type != WAYPOINT_REACHED;
+				if(droppable && gatingSequence == stuckSequence)
+				{
+					// Still stuck where the last wait ran out, do not wait again
+					droppedEvents.incrementAndGet(type);
+					return false;
+				}
+				stalls.incrementAndGet();
+				long deadline = System.nanoTime() + publishTimeoutNanos;
+				do
+				{
+					if(droppable && System.nanoTime() - deadline > 0L)
+					{
+						stuckSequence = gatingSequence;
+						droppedEvents.incrementAndGet(type);
+						return false;
+					}
+					wakeConsumers();
+					Thread.yield();
+					gatingSequence = getMinimumSequence(sequence);
+				}while(sequence - gatingSequence > mask);
+			}
+		}
+		
+		int slot = (int)sequence & mask;
+		types[slot] = type;
+		waypoints[slot] = waypoint;
+		if(match != null)
+		{
+			matches[slot].set(match);
+		}
+		published.set(sequence + 1L);
+		wakeConsumers();
+		return true;
+	}
+	
+	/**
+	 * Returns the number of events published but not yet read by the slowest consumer.
+	 * @return
+	 */
+	public long getDepth()
+	{
+		long sequence = published.get();
+		return sequence - getMinimumSequence(sequence);
+	}
+	
+	/**
+	 * Returns the number of times the producer had to wait for a consumer to make room.
+	 * @return
+	 */
+	public long getStalls()
+	{
+		return stalls.get();
+	}
+	
+	/**
+	 * Returns the number of off route and rejoined route events dropped, as a consumer made no room
+	 * for them in time. Waypoint reached events are never dropped.
+	 * @return
+	 */
+	public long getDroppedEvents()
+	{
+		return droppedEvents.get(OFF_ROUTE) + droppedEvents.get(REJOINED_ROUTE);
+	}
+	
+	/**
+	 * Returns the number of events of the given type dropped, as a consumer made no room for them in time.
+	 * @param type one of WAYPOINT_REACHED, OFF_ROUTE or REJOINED_ROUTE
+	 * @return
+	 */
+	public long getDroppedEvents(int type)
+	{
+		return droppedEvents.get(type);
+	}
+	
+	/**
+	 * Returns the number of position updates skipped by all consumers, as newer ones replaced them.
+	 * @return
+	 */
+	public long getDroppedPositions()
+	{
+		long dropped = 0L;
+		for(Consumer consumer : consumers)
+		{
+			dropped += consumer.getDroppedPositions();
+		}
+		return dropped;
+	}
+	
+	private long getMinimumSequence(long sequence)
+	{
+		long minimum = sequence;
+		for(Consumer consumer : consumers)
+		{
+			minimum = Math.min(minimum, consumer.sequence);
+		}
+		return minimum;
+	}
+	
+	private void wakeConsumers()
+	{
+		for(Consumer consumer : consumers)
+		{
+			Thread waiter = consumer.waiter;
+			if(waiter != null)
+			{
+				LockSupport.unpark(waiter);
+			}
+		}
+	}
+	
+	/**
+	 * One reader of the ring. A consumer must only be polled by one thread at a time.
+	 */
+	public class Consumer
+	{
+		// The next event to read, only written by the polling thread
+		private volatile long sequence;
+		private long positionsSeen;
+		private volatile long droppedPositions = 0L;
+		// The thread waiting for events, if any
+		private volatile Thread waiter;
+		
+		private Consumer(long sequence, long positionsSeen)
+		{
+			this.sequence = sequence;
+			this.positionsSeen = positionsSeen;
+		}
+		
+		/**
+		 * Passes the latest position update, if there is a new one, and then every event published since
+		 * the last poll to the handler. Returns false if there was nothing to pass on.
+		 * If the handler throws, the exception is passed on, but the event it was handling still counts
+		 * as read; the events after it are passed on by the next poll.
+		 * @param handler
+		 * @return
+		 */
+		public boolean poll(Handler handler)
+		{
+			// Every event up to here was published after the fix it belongs to was counted
+			long available = published.get();
+			long fixes = positions.get();
+			long next = sequence;
+			if(fixes == positionsSeen && available == next)
+			{
+				return false;
+			}
+			
+			if(fixes != positionsSeen)
+			{
+				droppedPositions += fixes - positionsSeen - 1L;
+				positionsSeen = fixes;
+				handler.positionUpdated();
+			}
+			for(; next < available; next++)
+			{
+				int slot = (int)next & mask;
+				int type = types[slot];
+				try
+				{
+					handler.eventReceived(type, waypoints[slot], type == WAYPOINT_REACHED ? null : matches[slot]);
+				}finally
+				{
+					// Free the slot as soon as it is handled
+					sequence = next + 1L;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Polls the ring, waiting up to the given time for something to arrive if it is empty.
+		 * Returns false if nothing arrived.
+		 * @param handler
+		 * @param timeoutNanos
+		 * @return
+		 */
+		public boolean poll(Handler handler, long timeoutNanos)
+		{
+			// At a high rate something arrives soon, and waking a parked thread costs the producer more
+			for(int ii = 0; ii < SPINS; ii++)
+			{
+				if(poll(handler))
+				{
+					return true;
+				}
+				Thread.yield();
+			}
+			waiter = Thread.currentThread();
+			try
+			{
+				// Check again, in case the producer looked for a waiter before it was set
+				if(poll(handler))
+				{
+					return true;
+				}
+				LockSupport.parkNanos(this, timeoutNanos);
+			}finally
+			{
+				waiter = null;
+			}
+			return poll(handler);
+		}
+		
+		/**
+		 * Returns the number of events published but not yet read by this consumer.
+		 * @return
+		 */
+		public long getDepth()
+		{
+			return published.get() - sequence;
+		}
+		
+		/**
+		 * Returns the number of position updates this consumer skipped, as newer ones replaced them.
+		 * @return
+		 */
+		public long getDroppedPositions()
+		{
+			return droppedPositions;
+		}
+	}
+}
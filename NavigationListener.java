@@ -0,0 +1,36 @@
+package geoapp;
+
+/**
+ * Receives the events of navigation sessions run by a NavigationService. Events are called on the
+ * worker thread of the session, in the order its locations were received, and a listener shared by
+ * several sessions may be called from several threads at once.
+ */
+public interface NavigationListener
+{
+	/**
+	 * Called after each location of a session. The position is available from the session's navigator.
+	 * @param session
+	 */
+	public void positionUpdated(NavigationSession session);
+	
+	/**
+	 * Called when a session reaches its next waypoint.
+	 * @param session
+	 * @param newTarget the waypoint after it, or null once the route is finished
+	 */
+	public void targetWaypointUpdated(NavigationSession session, Waypoint newTarget);
+	
+	/**
+	 * Called when a session moves too far from its route.
+	 * @param session
+	 * @param match the nearest point of the route, which is reused once this returns
+	 */
+	public void offRoute(NavigationSession session, RouteMatch match);
+	
+	/**
+	 * Called when a session comes back to its route after leaving it.
+	 * @param session
+	 * @param match the point the route was rejoined at, which is reused once this returns
+	 */
+	public void rejoinedRoute(NavigationSession session, RouteMatch match);
+}
@@ -0,0 +1,335 @@
+package geoapp;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Navigates many devices at once, each in its own session keyed by device ID. Unlike App, which
+ * tracks a single user, a service holds any number of sessions, and reports each session's events
+ * to the listener it was opened with.
+ * 
+ * Sessions are shared between a fixed number of worker threads by their device ID. Locations and
+ * route changes are queued for the session's worker, which applies them in the order they were
+ * received, so a session is only ever updated on one thread. Sessions on different workers are
+ * updated in parallel.
+ */
+public class NavigationService
+{
+	// The number of locations and route changes that can wait for each worker
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	
+	// The number of entries a worker applies before checking whether it has been shut down
+	private static final int DRAIN_LIMIT = 256;
+	// The number of times an idle worker looks for work before waiting to be woken
+	private static final int SPINS = 64;
+	
+	private final ConcurrentHashMap<String, NavigationSession> sessions = new ConcurrentHashMap<String, NavigationSession>();
+	private final Worker[] workers;
+	private volatile boolean running = true;
+	
+	private final AtomicLong stalls = new AtomicLong();
+	
+	/**
+	 * Creates a service with one worker per processor.
+	 */
+	public NavigationService()
+	{
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+	}
+	
+	/**
+	 * Creates a service with the given number of workers, each queueing up to the given number of
+	 * entries (rounded up to a power of two). The workers are started straight away.
+	 * @param workerCount
+	 * @param queueCapacity
+	 * @throws IllegalArgumentException if either is less than one
+	 */
+	public NavigationService(int workerCount, int queueCapacity) throws IllegalArgumentException
+	{
+		if(workerCount < 1)
+		{
+			throw new IllegalArgumentException("worker count must be at least 1");
+		}
+		if(queueCapacity < 1 || queueCapacity > 1 << 30)
+		{
+			throw new IllegalArgumentException("queue capacity must be from 1 to 2^30");
+		}
+		int capacity = Integer.highestOneBit(queueCapacity);
+		if(capacity < queueCapacity)
+		{
+			capacity <<= 1;
+		}
+		
+		workers = new Worker[workerCount];
+		for(int ii = 0; ii < workerCount; ii++)
+		{
+			workers[ii] = new Worker(new SessionQueue(capacity));
+			Thread thread = new Thread(workers[ii], "navigation-worker-" + ii);
+			thread.setDaemon(true);
+			workers[ii].thread = thread;
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Opens a session for a device, navigating the given route (which may be null until a route is set).
+	 * @param deviceId
+	 * @param route
+	 * @param listener receives the session's events on its worker thread
+	 * @return
+	 * @throws IllegalStateException if the device already has a session
+	 */
+	public NavigationSession openSession(String deviceId, CompositeRoute route, NavigationListener listener) throws IllegalStateException
+	{
+		// Spread the hash, so device IDs differing only in their last characters still spread over the workers
+		int hash = deviceId.hashCode();
+		hash ^= hash >>> 16;
+		NavigationSession session = new NavigationSession(deviceId, Math.floorMod(hash * 0x9E3779B9, workers.length), listener);
+		if(sessions.putIfAbsent(deviceId, session) != null)
+		{
+			throw new IllegalStateException("device " + deviceId + " already has a session");
+		}
+		if(route != null)
+		{
+			setRoute(session, route);
+		}
+		return session;
+	}
+	
+	/**
+	 * Closes the session of a device. Entries already queued for it are still applied.
+	 * Returns the session, or null if the device had none.
+	 * @param deviceId
+	 * @return
+	 */
+	public NavigationSession closeSession(String deviceId)
+	{
+		return sessions.remove(deviceId);
+	}
+	
+	public NavigationSession getSession(String deviceId)
+	{
+		return sessions.get(deviceId);
+	}
+	
+	public int getSessionCount()
+	{
+		return sessions.size();
+	}
+	
+	public int getWorkerCount()
+	{
+		return workers.length;
+	}
+	
+	/**
+	 * Queues a change to the route a device is navigating.
+	 * Returns false if the device has no session.
+	 * @param deviceId
+	 * @param route
+	 * @return
+	 * @throws IllegalStateException if the service has been shut down
+	 */
+	public boolean setRoute(String deviceId, CompositeRoute route) throws IllegalStateException
+	{
+		NavigationSession session = sessions.get(deviceId);
+		if(session == null)
+		{
+			return false;
+		}
+		setRoute(session, route);
+		return true;
+	}
+	
+	private void setRoute(NavigationSession session, CompositeRoute route)
+	{
+		if(route instanceof LazyCompositeRoute)
+		{
+			// Navigate the built route, so it stays in memory for as long as it is in use
+			route = ((LazyCompositeRoute)route).materialize();
+		}
+		enqueue(session, true, route, 0d, 0d, 0d);
+	}
+	
+	/**
+	 * Queues a location for a device, waiting if its worker's queue is full.
+	 * Returns false if the device has no session.
+	 * @param deviceId
+	 * @param latitude
+	 * @param longitude
+	 * @param altitude
+	 * @return
+	 * @throws IllegalStateException if the service has been shut down
+	 */
+	public boolean locationReceived(String deviceId, double latitude, double longitude, double altitude) throws IllegalStateException
+	{
+		NavigationSession session = sessions.get(deviceId);
+		if(session == null)
+		{
+			return false;
+		}
+		enqueue(session, false, null, latitude, longitude, altitude);
+		return true;
+	}
+	
+	/**
+	 * Queues a location for a session, waiting if its worker's queue is full. This skips looking up the
+	 * session, for callers that keep hold of their sessions.
+	 * @param session
+	 * @param latitude
+	 * @param longitude
+	 * @param altitude
+	 * @throws IllegalStateException if the service has been shut down
+	 */
+	public void locationReceived(NavigationSession session, double latitude, double longitude, double altitude) throws IllegalStateException
+	{
+		enqueue(session, false, null, latitude, longitude, altitude);
+	}
+	
+	private void enqueue(NavigationSession session, boolean routeChange, CompositeRoute route, double latitude, double longitude, double altitude)
+	{
+		if(!running)
+		{
+			throw new IllegalStateException("service has been shut down");
+		}
+		Worker worker = workers[session.getShard()];
+		if(!worker.queue.offer(session, routeChange, route, latitude, longitude, altitude))
+		{
+			stalls.incrementAndGet();
+			do
+			{
+				if(!running)
+				{
+					throw new IllegalStateException("service has been shut down");
+				}
+				LockSupport.unpark(worker.thread);
+				Thread.yield();
+			}while(!worker.queue.offer(session, routeChange, route, latitude, longitude, altitude));
+		}
+		// The entry is only published with a release store, which could otherwise be ordered after this
+		// read of the flag. Together with the fence in the worker, either the worker sees the entry
+		// before it parks, or the flag is seen here and the worker is woken.
+		VarHandle.fullFence();
+		if(worker.waiting)
+		{
+			LockSupport.unpark(worker.thread);
+		}
+	}
+	
+	/**
+	 * Returns the number of entries waiting across every worker, which is approximate while entries are queued.
+	 * @return
+	 */
+	public long getQueueDepth()
+	{
+		long depth = 0L;
+		for(Worker worker : workers)
+		{
+			depth += worker.queue.size();
+		}
+		return depth;
+	}
+	
+	/**
+	 * Returns the number of locations and route changes applied by every worker.
+	 * @return
+	 */
+	public long getProcessedCount()
+	{
+		long processed = 0L;
+		for(Worker worker : workers)
+		{
+			processed += worker.applied;
+		}
+		return processed;
+	}
+	
+	/**
+	 * Returns the number of times a caller had to wait for room in a worker's queue.
+	 * @return
+	 */
+	public long getStalls()
+	{
+		return stalls.get();
+	}
+	
+	/**
+	 * Returns the number of entries whose listener threw an exception.
+	 * @return
+	 */
+	public long getFailures()
+	{
+		long failures = 0L;
+		for(Worker worker : workers)
+		{
+			failures += worker.queue.getFailures();
+		}
+		return failures;
+	}
+	
+	/**
+	 * Stops the workers once they have applied the entries already queued, waiting for them to finish.
+	 * @throws InterruptedException
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		running = false;
+		for(Worker worker : workers)
+		{
+			LockSupport.unpark(worker.thread);
+		}
+		for(Worker worker : workers)
+		{
+			worker.thread.join();
+		}
+	}
+	
+	/**
+	 * Applies the entries of one queue, waiting for more when it is empty.
+	 */
+	private class Worker implements Runnable
+	{
+		final SessionQueue queue;
+		Thread thread;
+		volatile boolean waiting = false;
+		// Only written by the worker
+		volatile long applied = 0L;
+		
+		Worker(SessionQueue queue)
+		{
+			this.queue = queue;
+		}
+		
+		@Override
+		public void run()
+		{
+			int idle = 0;
+			while(running || !queue.isEmpty())
+			{
+				int count = queue.drain(DRAIN_LIMIT);
+				if(count > 0)
+				{
+					applied += count;
+					idle = 0;
+				}else if(++idle < SPINS)
+				{
+					Thread.yield();
+				}else
+				{
+					waiting = true;
+					// Check again, in case an entry was queued before the flag was set.
+					// The queue is read with acquire loads, which could otherwise be ordered before the flag is set
+					VarHandle.fullFence();
+					if(queue.isEmpty() && running)
+					{
+						LockSupport.parkNanos(this, 100000000L);
+					}
+					waiting = false;
+					idle = 0;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package geoapp;
+
+/**
+ * One device navigating a route within a NavigationService. The session's navigator is only
+ * updated on its worker thread, but can be read from any thread.
+ */
+public class NavigationSession
+{
+	private final String deviceId;
+	private final int shard;
+	private final NavigationListener listener;
+	private final RouteNavigator navigator;
+	
+	NavigationSession(String deviceId, int shard, NavigationListener listener)
+	{
+		this.deviceId = deviceId;
+		this.shard = shard;
+		this.listener = listener;
+		navigator = new RouteNavigator(new NavigationEventRing.Handler()
+		{
+			@Override
+			public void positionUpdated()
+			{
+				listener.positionUpdated(NavigationSession.this);
+			}
+			
+			@Override
+			public void eventReceived(int type, Waypoint waypoint, RouteMatch match)
+			{
+				switch(type)
+				{
+					case NavigationEventRing.WAYPOINT_REACHED:
+						listener.targetWaypointUpdated(NavigationSession.this, waypoint);
+						break;
+					case NavigationEventRing.OFF_ROUTE:
+						listener.offRoute(NavigationSession.this, match);
+						break;
+					case NavigationEventRing.REJOINED_ROUTE:
+						listener.rejoinedRoute(NavigationSession.this, match);
+						break;
+				}
+			}
+		});
+	}
+	
+	public String getDeviceId()
+	{
+		return deviceId;
+	}
+	
+	/**
+	 * Returns the index of the worker thread the session runs on.
+	 * @return
+	 */
+	public int getShard()
+	{
+		return shard;
+	}
+	
+	public RouteNavigator getNavigator()
+	{
+		return navigator;
+	}
+	
+	/**
+	 * Applies a route change or a location taken from the worker's queue.
+	 */
+	void process(boolean routeChange, CompositeRoute route, double latitude, double longitude, double altitude)
+	{
+		if(routeChange)
+		{
+			navigator.setRoute(route);
+		}else
+		{
+			navigator.locationReceived(latitude, longitude, altitude);
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return deviceId;
+	}
+}
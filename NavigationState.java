@@ -0,0 +1,75 @@
+package geoapp;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The route, segment and position of a navigator, guarded by a sequence lock so that they are
+ * updated without allocating and read from any thread without locking.
+ * 
+ * The sequence is odd while an update is in progress. Writers take turns by moving it from even to
+ * odd, and readers copy the fields they need between beginRead and validate, starting again if the
+ * sequence changed in between. Readers never hold up a writer, and never see half of an update.
+ */
+final class NavigationState
+{
+	private final AtomicLong sequence = new AtomicLong();
+	
+	// Only read these between beginRead and validate, and only change them between beginWrite and endWrite
+	RouteProfile profile;
+	RouteMatcher matcher;
+	ElevationIndex elevationIndex;
+	// The index of the current segment within the profile, the segment count once the route is finished
+	int segmentIndex;
+	boolean hasPosition;
+	double latitude, longitude, altitude;
+	
+	/**
+	 * Waits for any other update to finish, and starts an update.
+	 * @return the stamp to pass to endWrite
+	 */
+	long beginWrite()
+	{
+		long stamp = sequence.get();
+		while((stamp & 1L) != 0L || !sequence.compareAndSet(stamp, stamp + 1L))
+		{
+			Thread.onSpinWait();
+			stamp = sequence.get();
+		}
+		// Keep the field writes after the sequence becomes odd
+		VarHandle.storeStoreFence();
+		return stamp + 1L;
+	}
+	
+	void endWrite(long stamp)
+	{
+		sequence.setRelease(stamp + 1L);
+	}
+	
+	/**
+	 * Waits for any update in progress to finish, and starts a read.
+	 * @return the stamp to pass to validate
+	 */
+	long beginRead()
+	{
+		long stamp = sequence.getAcquire();
+		while((stamp & 1L) != 0L)
+		{
+			Thread.onSpinWait();
+			stamp = sequence.getAcquire();
+		}
+		return stamp;
+	}
+	
+	/**
+	 * Returns true if nothing was updated since the read started, so the fields read are consistent.
+	 * @param stamp
+	 * @return
+	 */
+	boolean validate(long stamp)
+	{
+		// Keep the field reads before the sequence is checked again
+		VarHandle.loadLoadFence();
+		return sequence.get() == stamp;
+	}
+}
@@ -1,17 +1,31 @@
 package geoapp;
 
-import java.util.Iterator;
-
 /**
  * A route is an enumerable set of segments, with the constraint that each
  * consecutive segment will start within a set distance horizontally and vertically
  * of the last segment.
+ * 
+ * Routes are not changed once they have been built, so a route may be shared by any number
+ * of threads without locking. Its segments are walked with a cursor of its own.
  */
-public interface Route extends Iterator<Segment>
+public interface Route
 {
 	public Segment getStart();
 	public Segment getEnd();
-	public void resetIterator();
+	
+	/**
+	 * Returns a new cursor before the first segment of this route.
+	 * @return
+	 */
+	public RouteCursor cursor();
+	
+	/**
+	 * Returns a new cursor before the first waypoint of this route, which walks the same
+	 * waypoints as getWaypoints() in the same order.
+	 * @return
+	 */
+	public WaypointCursor waypointCursor();
+	
 	public double getHorizontalDistance();
 	public double getAscension();
 	public double getDescension();
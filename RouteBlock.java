@@ -0,0 +1,182 @@
+package geoapp;
+
+import java.util.Arrays;
+
+/**
+ * The tokenized lines of a single route from the route data, before they are built into a route.
+ * Lines are stored in columns, so a block holds no per-line objects other than its text.
+ */
+class RouteBlock
+{
+	final String name;
+	final String description;
+	
+	// A hash of every line of the block, including its header
+	private long hash;
+	private int size = 0;
+	private int pointerCount = 0;
+	private boolean valid = true;
+	private int[] types;
+	private double[] latitudes;
+	private double[] longitudes;
+	private double[] altitudes;
+	private boolean[] positions;
+	// The description of each waypoint or the target of each pointer, null for other lines
+	private String[] texts;
+	
+	public RouteBlock(String name, String description, long headerHash)
+	{
+		this.name = name;
+		this.description = description;
+		this.hash = (RouteLineTokenizer.HASH_OFFSET ^ headerHash) * RouteLineTokenizer.HASH_PRIME;
+		types = new int[8];
+		latitudes = new double[8];
+		longitudes = new double[8];
+		altitudes = new double[8];
+		positions = new boolean[8];
+		texts = new String[8];
+	}
+	
+	/**
+	 * Creates a block with the header, hash and validity of another block, but none of its lines.
+	 */
+	private RouteBlock(RouteBlock block)
+	{
+		this.name = block.name;
+		this.description = block.description;
+		this.hash = block.hash;
+		this.valid = block.valid;
+		types = new int[0];
+		latitudes = new double[0];
+		longitudes = new double[0];
+		altitudes = new double[0];
+		positions = new boolean[0];
+		texts = new String[0];
+	}
+	
+	/**
+	 * Returns a copy of this block without its lines, to keep in place of the block once a route
+	 * has been built from it. The copy has no pointers, so the pointers of the block must have been
+	 * resolved already.
+	 * @return
+	 */
+	RouteBlock withoutLines()
+	{
+		return new RouteBlock(this);
+	}
+	
+	/**
+	 * Adds the line last read by the tokenizer to the block.
+	 * A malformed line makes the whole block invalid.
+	 * @param line
+	 */
+	public void add(RouteLineTokenizer line)
+	{
+		int type = line.getType();
+		if(type < 0)
+		{
+			valid = false;
+		}
+		hash = (hash ^ line.getHash()) * RouteLineTokenizer.HASH_PRIME;
+		String text = null;
+		if(type == RouteLineTokenizer.WAYPOINT || type == RouteLineTokenizer.POINTER)
+		{
+			text = line.getText().toString();
+		}
+		add(type, line.hasPosition(), line.getLatitude(), line.getLongitude(), line.getAltitude(), text);
+	}
+	
+	private void add(int type, boolean hasPosition, double latitude, double longitude, double altitude, String text)
+	{
+		ensureCapacity(size + 1);
+		types[size] = type;
+		positions[size] = hasPosition;
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		altitudes[size] = altitude;
+		texts[size] = text;
+		if(type == RouteLineTokenizer.POINTER)
+		{
+			pointerCount++;
+		}
+		size++;
+	}
+	
+	private void ensureCapacity(int capacity)
+	{
+		if(capacity > types.length)
+		{
+			int newCapacity = Math.max(capacity, types.length * 2);
+			types = Arrays.copyOf(types, newCapacity);
+			latitudes = Arrays.copyOf(latitudes, newCapacity);
+			longitudes = Arrays.copyOf(longitudes, newCapacity);
+			altitudes = Arrays.copyOf(altitudes, newCapacity);
+			positions = Arrays.copyOf(positions, newCapacity);
+			texts = Arrays.copyOf(texts, newCapacity);
+		}
+	}
+	
+	/**
+	 * Returns a hash of the route data the block was read from. Blocks with the same hash hold
+	 * the same lines, although the routes they point to may have changed.
+	 * @return
+	 */
+	public long getHash()
+	{
+		return hash;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * Returns false if any of the lines in the block were malformed.
+	 * @return
+	 */
+	public boolean isValid()
+	{
+		return valid;
+	}
+	
+	public boolean hasPointers()
+	{
+		return pointerCount > 0;
+	}
+	
+	public int getType(int index)
+	{
+		return types[index];
+	}
+	
+	public boolean hasPosition(int index)
+	{
+		return positions[index];
+	}
+	
+	public double getLatitude(int index)
+	{
+		return latitudes[index];
+	}
+	
+	public double getLongitude(int index)
+	{
+		return longitudes[index];
+	}
+	
+	public double getAltitude(int index)
+	{
+		return altitudes[index];
+	}
+	
+	/**
+	 * Returns the description of a waypoint, or the name of the route a pointer refers to.
+	 * @param index
+	 * @return
+	 */
+	public String getText(int index)
+	{
+		return texts[index];
+	}
+}
@@ -0,0 +1,118 @@
+package geoapp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The routes currently available, along with a hash of the route data each was built from.
+ * A newer copy of the route data is merged in by rebuilding only the routes whose lines changed,
+ * and the routes that point to them; every other route is kept as it is, and rebuilt routes
+ * share the unchanged routes they point to.
+ */
+public class RouteCatalog
+{
+	private ArrayList<CompositeRoute> routes = new ArrayList<CompositeRoute>();
+	// The hash of the block each route was built from
+	private long[] hashes = new long[0];
+	
+	// The route built from each block hash, null if the block did not form a valid route.
+	private HashMap<Long, CompositeRoute> routesByHash = new HashMap<Long, CompositeRoute>();
+	
+	// Incremented every time a refresh changes the routes
+	private int version = 0;
+	
+	public RouteCatalog()
+	{
+	}
+	
+	/**
+	 * Creates a catalog of routes that were built earlier, such as routes read from a route store.
+	 * Blocks that did not form a valid route are not known, and are built again on the next refresh.
+	 * @param routes
+	 * @param hashes the hash of the block each route was built from
+	 */
+	RouteCatalog(ArrayList<CompositeRoute> routes, long[] hashes)
+	{
+		this.routes = routes;
+		this.hashes = hashes;
+		for(int ii = 0; ii < routes.size(); ii++)
+		{
+			routesByHash.put(hashes[ii], routes.get(ii));
+		}
+	}
+	
+	public ArrayList<CompositeRoute> getRoutes()
+	{
+		return routes;
+	}
+	
+	/**
+	 * Returns the hash of the block the route at the given index was built from.
+	 * @param index
+	 * @return
+	 */
+	long getHash(int index)
+	{
+		return hashes[index];
+	}
+	
+	public int getVersion()
+	{
+		return version;
+	}
+	
+	/**
+	 * Reads a complete copy of the route data and merges it into the catalog.
+	 * Returns true if any route was added, removed or rebuilt.
+	 * @param routeData
+	 * @param parallelism the number of threads used to build the changed routes
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean refresh(Reader routeData, int parallelism) throws IOException
+	{
+		// Routes are built as the route data is read, apart from the routes that did not change
+		RouteDataStreamParser parser = new RouteDataStreamParser(routeData);
+		parser.setParallelism(parallelism);
+		parser.setKnownRoutes(routesByHash);
+		final HashMap<Integer, CompositeRoute> parsed = new HashMap<Integer, CompositeRoute>();
+		parser.parse(new RouteDataStreamParser.RouteListener()
+		{
+			@Override
+			public void routeParsed(CompositeRoute route, int position)
+			{
+				parsed.put(position, route);
+			}
+		});
+		ArrayList<RouteBlock> blocks = parser.getBlocks();
+		int count = blocks.size();
+		
+		// Merge the rebuilt routes with the unchanged ones, in feed order
+		ArrayList<CompositeRoute> newRoutes = new ArrayList<CompositeRoute>();
+		long[] newHashes = new long[count];
+		HashMap<Long, CompositeRoute> newRoutesByHash = new HashMap<Long, CompositeRoute>();
+		for(int ii = 0; ii < count; ii++)
+		{
+			long hash = blocks.get(ii).getHash();
+			CompositeRoute route = parsed.get(ii);
+			if(route != null)
+			{
+				newHashes[newRoutes.size()] = hash;
+				newRoutes.add(route);
+			}
+			newRoutesByHash.put(hash, route);
+		}
+		
+		boolean updated = !newRoutes.equals(routes);
+		routes = newRoutes;
+		hashes = newHashes;
+		routesByHash = newRoutesByHash;
+		if(updated)
+		{
+			version++;
+		}
+		return updated;
+	}
+}
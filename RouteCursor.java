@@ -0,0 +1,17 @@
+package geoapp;
+
+import java.util.Iterator;
+
+/**
+ * Walks the segments of a route in order. Each cursor keeps its own place in the route,
+ * so any number of cursors may walk the same route at once, on any threads.
+ * A cursor is not itself safe to share between threads.
+ * next returns null once there are no more segments.
+ */
+public interface RouteCursor extends Iterator<Segment>
+{
+	/**
+	 * Moves the cursor back to before the first segment.
+	 */
+	public void reset();
+}
@@ -0,0 +1,402 @@
+package geoapp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses route data line by line from a stream, instead of from one string holding the whole feed.
+ * Routes are handed to a listener as soon as they can be built: a route without pointers as soon
+ * as its block ends, and a route with pointers once the feed is exhausted (as a pointer may refer
+ * to a route further down the feed).
+ * 
+ * With a parallelism greater than one, routes without pointers are built concurrently on a fork/join
+ * pool in batches as the feed is read, and the routes with pointers are built in waves once it is
+ * exhausted. Routes are handed to the listener in the same order either way, on the calling thread.
+ * 
+ * Every route is built once, and shared as a subroute by the routes pointing to it.
+ */
+public class RouteDataStreamParser
+{
+	/**
+	 * Receives routes from the parser as they are completed.
+	 */
+	public interface RouteListener
+	{
+		/**
+		 * @param route
+		 * @param position the index of the route's block within the feed
+		 */
+		public void routeParsed(CompositeRoute route, int position);
+	}
+	
+	// Initial size of the buffer lines are read into, it grows if a single line does not fit.
+	private static final int BUFFER_SIZE = 8192;
+	// The number of routes without pointers read before they are built together, with a parallelism
+	// greater than one, and the number of those built by a single task.
+	private static final int ROUTES_PER_BATCH = 256;
+	private static final int ROUTES_PER_TASK = 4;
+	
+	private final Reader reader;
+	private final RouteLineTokenizer tokenizer = new RouteLineTokenizer();
+	private RouteListener listener;
+	private int parallelism = 1;
+	
+	// The blocks of every route read so far. Only the header of a block is kept once its route is built,
+	// so that pointers further down the feed can be resolved.
+	private final ArrayList<RouteBlock> unparsedRoutes = new ArrayList<RouteBlock>();
+	
+	// The route built from each block as soon as it was read, null if the block was not built.
+	private final ArrayList<CompositeRoute> streamedRoutes = new ArrayList<CompositeRoute>();
+	
+	// Positions of the routes that contain pointers, these are built at the end of the feed.
+	private final ArrayList<Integer> deferredRoutes = new ArrayList<Integer>();
+	
+	// Positions of the routes without pointers waiting to be built as a batch, and the pool building them.
+	private final ArrayList<Integer> pendingRoutes = new ArrayList<Integer>();
+	private ForkJoinPool pool = null;
+	
+	// Routes built earlier from blocks with the same hash, which are shared instead of built again.
+	private HashMap<Long, CompositeRoute> knownRoutes = null;
+	
+	// The route currently being read, null while searching for the next route.
+	private RouteBlock currentRoute = null;
+	
+	/**
+	 * Creates a parser for the given stream. The stream can only be parsed once.
+	 * @param reader
+	 */
+	public RouteDataStreamParser(Reader reader)
+	{
+		this.reader = reader;
+	}
+	
+	/**
+	 * Sets the number of threads used to build routes. With a parallelism of one (the default),
+	 * routes are built on the calling thread as soon as possible.
+	 * @param parallelism
+	 * @throws IllegalArgumentException if the parallelism is less than one
+	 */
+	public void setParallelism(int parallelism) throws IllegalArgumentException
+	{
+		if(parallelism < 1)
+		{
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+	
+	/**
+	 * Supplies routes built earlier, by the hash of the block each was built from (null where the block
+	 * did not form a valid route). A block with a known hash is not built again if every route it points
+	 * to is unchanged, and the known route is passed to the listener instead.
+	 * @param routes
+	 */
+	void setKnownRoutes(HashMap<Long, CompositeRoute> routes)
+	{
+		knownRoutes = routes;
+	}
+	
+	/**
+	 * Reads the stream until it is exhausted, passing every valid route to the listener.
+	 * @param listener
+	 * @throws IOException
+	 */
+	public void parse(RouteListener listener) throws IOException
+	{
+		this.listener = listener;
+		pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try
+		{
+			readAll();
+			if(pool != null)
+			{
+				buildPending();
+			}
+		}finally
+		{
+			if(pool != null)
+			{
+				pool.shutdown();
+			}
+		}
+		
+		// Every route is now known, so the pointers can be resolved.
+		// Share the routes that were already built with the routes pointing to them
+		RoutePointerResolver resolver = new RoutePointerResolver(unparsedRoutes);
+		for(int ii = 0; ii < unparsedRoutes.size(); ii++)
+		{
+			if(!unparsedRoutes.get(ii).hasPointers())
+			{
+				resolver.setRoute(ii, streamedRoutes.get(ii));
+			}
+		}
+		if(knownRoutes != null)
+		{
+			shareKnownRoutes(resolver);
+		}
+		
+		if(parallelism > 1)
+		{
+			CompositeRoute[] routes = resolver.buildAll(parallelism);
+			for(int position : deferredRoutes)
+			{
+				if(routes[position] != null)
+				{
+					listener.routeParsed(routes[position], position);
+				}
+			}
+		}else
+		{
+			for(int position : deferredRoutes)
+			{
+				CompositeRoute route = resolver.build(position);
+				if(route != null)
+				{
+					listener.routeParsed(route, position);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the block of every route read, in feed order. Only the header of a block is kept
+	 * once the feed has been parsed.
+	 * @return
+	 */
+	ArrayList<RouteBlock> getBlocks()
+	{
+		return unparsedRoutes;
+	}
+	
+	/**
+	 * Supplies the known route of every block with pointers that did not change. A block has changed
+	 * if its hash is not known, it has a missing pointer, or it points to a block that changed.
+	 */
+	private void shareKnownRoutes(RoutePointerResolver resolver)
+	{
+		int count = unparsedRoutes.size();
+		boolean[] changed = new boolean[count];
+		ArrayDeque<Integer> changes = new ArrayDeque<Integer>();
+		ArrayList<ArrayList<Integer>> pointedToBy = new ArrayList<ArrayList<Integer>>(count);
+		for(int ii = 0; ii < count; ii++)
+		{
+			pointedToBy.add(new ArrayList<Integer>());
+		}
+		for(int ii = 0; ii < count; ii++)
+		{
+			boolean missingPointer = false;
+			for(int target : resolver.getPointers(ii))
+			{
+				if(target == RoutePointerResolver.MISSING)
+				{
+					missingPointer = true;
+				}else
+				{
+					pointedToBy.get(target).add(ii);
+				}
+			}
+			
+			// Routes with missing pointers are invalid, so rebuilding them costs nothing
+			if(missingPointer || !knownRoutes.containsKey(unparsedRoutes.get(ii).getHash()))
+			{
+				changed[ii] = true;
+				changes.add(ii);
+			}
+		}
+		
+		// Any route pointing to a changed route has changed as well
+		while(!changes.isEmpty())
+		{
+			for(int source : pointedToBy.get(changes.poll()))
+			{
+				if(!changed[source])
+				{
+					changed[source] = true;
+					changes.add(source);
+				}
+			}
+		}
+		
+		for(int position : deferredRoutes)
+		{
+			if(!changed[position])
+			{
+				resolver.setRoute(position, knownRoutes.get(unparsedRoutes.get(position).getHash()));
+			}
+		}
+	}
+	
+	/**
+	 * Reads every line of the stream into a single buffer, and tokenizes them in place.
+	 */
+	private void readAll() throws IOException
+	{
+		char[] buffer = new char[BUFFER_SIZE];
+		CharBuffer chars = CharBuffer.wrap(buffer);
+		// The number of characters in the buffer, and how many of those have been searched for line ends
+		int length = 0, scanned = 0;
+		while(true)
+		{
+			if(length == buffer.length)
+			{
+				// A single line fills the whole buffer, make room for the rest of it
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				chars = CharBuffer.wrap(buffer);
+			}
+		
+			int read = reader.read(buffer, length, buffer.length - length);
+			if(read < 0)
+			{
+				break;
+			}
+			length += read;
+		
+			int lineStart = 0;
+			for(; scanned < length; scanned++)
+			{
+				if(buffer[scanned] == '\n')
+				{
+					readLine(chars, lineStart, scanned);
+					lineStart = scanned + 1;
+				}
+			}
+			
+			// Move the incomplete line at the end of the buffer to the front
+			System.arraycopy(buffer, lineStart, buffer, 0, length - lineStart);
+			length -= lineStart;
+			scanned = length;
+		}
+		
+		if(length > 0)
+		{
+			// The last line had no line break
+			readLine(chars, 0, length);
+		}
+	}
+	
+	/**
+	 * Handles a single line of the feed, given as a range of the buffer.
+	 */
+	private void readLine(CharSequence chars, int start, int end)
+	{
+		int type = tokenizer.tokenize(chars, start, end);
+		if(currentRoute == null)
+		{
+			// Start the route at the next route header
+			if(type == RouteLineTokenizer.HEADER)
+			{
+				String name = tokenizer.getName().toString().trim();
+				currentRoute = new RouteBlock(name, tokenizer.getText().toString(), tokenizer.getHash());
+			}
+		}else
+		{
+			// We are inside a route already. End it when we find
+			// a line with no description or reference to another route.
+			currentRoute.add(tokenizer);
+			
+			if(type == RouteLineTokenizer.TERMINATOR)
+			{
+				unparsedRoutes.add(currentRoute);
+				streamedRoutes.add(null);
+				
+				int position = unparsedRoutes.size() - 1;
+				if(currentRoute.hasPointers())
+				{
+					deferredRoutes.add(position);
+				}else if(pool == null)
+				{
+					emit(position, buildStreamed(currentRoute));
+				}else
+				{
+					pendingRoutes.add(position);
+					if(pendingRoutes.size() == ROUTES_PER_BATCH)
+					{
+						buildPending();
+					}
+				}
+				currentRoute = null;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the route built from a block without pointers, or the known route built from the same block.
+	 */
+	private CompositeRoute buildStreamed(RouteBlock block)
+	{
+		if(knownRoutes != null && knownRoutes.containsKey(block.getHash()))
+		{
+			return knownRoutes.get(block.getHash());
+		}
+		return CompositeRoute.build(block, new CompositeRoute[0]);
+	}
+	
+	/**
+	 * Keeps the route built from a block without pointers, and passes it to the listener if it is valid.
+	 */
+	private void emit(int position, CompositeRoute route)
+	{
+		streamedRoutes.set(position, route);
+		unparsedRoutes.set(position, unparsedRoutes.get(position).withoutLines());
+		if(route != null)
+		{
+			listener.routeParsed(route, position);
+		}
+	}
+	
+	/**
+	 * Builds the pending routes on the pool, and passes them to the listener in feed order.
+	 */
+	private void buildPending()
+	{
+		CompositeRoute[] routes = new CompositeRoute[pendingRoutes.size()];
+		pool.invoke(new BuildTask(routes, 0, routes.length));
+		for(int ii = 0; ii < routes.length; ii++)
+		{
+			emit(pendingRoutes.get(ii), routes[ii]);
+		}
+		pendingRoutes.clear();
+	}
+	
+	/**
+	 * Builds a range of the pending routes, splitting the range
+	 * in half until it is small enough to build directly.
+	 */
+	private class BuildTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final CompositeRoute[] routes;
+		private final int start, end;
+		
+		public BuildTask(CompositeRoute[] routes, int start, int end)
+		{
+			this.routes = routes;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(end - start <= ROUTES_PER_TASK)
+			{
+				for(int ii = start; ii < end; ii++)
+				{
+					routes[ii] = buildStreamed(unparsedRoutes.get(pendingRoutes.get(ii)));
+				}
+			}else
+			{
+				int middle = (start + end) >>> 1;
+				invokeAll(new BuildTask(routes, start, middle), new BuildTask(routes, middle, end));
+			}
+		}
+	}
+}
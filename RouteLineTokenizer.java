@@ -0,0 +1,350 @@
+package geoapp;
+
+/**
+ * Splits a single line of route data into its parts in one pass, without copying it.
+ * The line is given as a range of a character sequence (usually a buffer shared by many lines),
+ * and the result of the last line is held by the tokenizer until the next call, so one tokenizer
+ * can be reused for every line of a feed. Malformed lines are reported by the returned line type
+ * instead of by exceptions.
+ *
+ * Line types:
+ *  - HEADER:     name [description]
+ *  - WAYPOINT:   latitude,longitude,altitude,[description]
+ *  - POINTER:    latitude,longitude,altitude,*name
+ *  - TERMINATOR: latitude,longitude,altitude (or any other line with no description or pointer)
+ */
+public class RouteLineTokenizer
+{
+	public static final int HEADER = 0;
+	public static final int WAYPOINT = 1;
+	public static final int POINTER = 2;
+	public static final int TERMINATOR = 3;
+	// The line has a description, but no opening bracket
+	public static final int INVALID_DESCRIPTION = -1;
+	// The line is a waypoint, but one of its coordinates is not a number
+	public static final int INVALID_NUMBER = -2;
+	
+	// Powers of ten that can be represented exactly as a double
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	
+	// The largest integer a double holds exactly (2^53)
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	
+	// 64 bit FNV-1a hash parameters
+	static final long HASH_OFFSET = 0xcbf29ce484222325L;
+	static final long HASH_PRIME = 0x100000001b3L;
+	
+	private CharSequence line;
+	private int type;
+	private int nameStart, nameEnd, textStart, textEnd;
+	private double latitude, longitude, altitude;
+	private boolean hasPosition;
+	private long hash;
+	
+	/**
+	 * Tokenizes the characters between start (inclusive) and end (exclusive),
+	 * ignoring whitespace at either end, and returns the type of the line.
+	 * @param chars
+	 * @param start
+	 * @param end
+	 * @return one of the line types, or a negative value if the line is malformed.
+	 */
+	public int tokenize(CharSequence chars, int start, int end)
+	{
+		line = chars;
+		hasPosition = false;
+		nameStart = nameEnd = textStart = textEnd = 0;
+		
+		// remove whitespace at the beginning and end of the line
+		while(start < end && chars.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		while(end > start && chars.charAt(end - 1) <= ' ')
+		{
+			end--;
+		}
+		
+		// Find the first bracket, the first asterisk, and the commas in front of the bracket
+		int bracket = -1, asterisk = -1, commas = 0;
+		int comma1 = -1, comma2 = -1, comma3 = -1;
+		hash = HASH_OFFSET;
+		for(int ii = start; ii < end; ii++)
+		{
+			char c = chars.charAt(ii);
+			hash = (hash ^ c) * HASH_PRIME;
+			if(c == '[')
+			{
+				if(bracket < 0)
+				{
+					bracket = ii;
+				}
+			}else if(c == '*')
+			{
+				if(asterisk < 0)
+				{
+					asterisk = ii;
+				}
+			}else if(c == ',' && bracket < 0)
+			{
+				commas++;
+				if(commas == 1)
+				{
+					comma1 = ii;
+				}else if(commas == 2)
+				{
+					comma2 = ii;
+				}else if(commas == 3)
+				{
+					comma3 = ii;
+				}
+			}
+		}
+		
+		if(end > start && chars.charAt(end - 1) == ']')
+		{
+			// The line has a description
+			if(bracket < 0)
+			{
+				type = INVALID_DESCRIPTION;
+				return type;
+			}
+			textStart = bracket + 1;
+			textEnd = end - 1;
+			
+			if(commas == 3)
+			{
+				// Everything between the last comma and the bracket must be whitespace
+				for(int ii = comma3 + 1; ii < bracket; ii++)
+				{
+					if(chars.charAt(ii) > ' ')
+					{
+						type = INVALID_DESCRIPTION;
+						return type;
+					}
+				}
+				type = parsePosition(start, comma1, comma2, comma3) ? WAYPOINT : INVALID_NUMBER;
+				return type;
+			}
+			
+			// Anything else with a description is the header of a route
+			nameStart = start;
+			nameEnd = bracket;
+			type = HEADER;
+			return type;
+		}
+		
+		if(asterisk >= 0)
+		{
+			textStart = asterisk + 1;
+			textEnd = end;
+			type = POINTER;
+			return type;
+		}
+		
+		// The line ends a route, it has a position if it holds exactly three numbers
+		if(commas == 2 && bracket < 0)
+		{
+			hasPosition = parsePosition(start, comma1, comma2, end);
+		}
+		type = TERMINATOR;
+		return type;
+	}
+	
+	/**
+	 * Returns the type of the last tokenized line.
+	 * @return
+	 */
+	public int getType()
+	{
+		return type;
+	}
+	
+	/**
+	 * Returns a hash of the last tokenized line, ignoring whitespace at either end.
+	 * @return
+	 */
+	public long getHash()
+	{
+		return hash;
+	}
+	
+	/**
+	 * Returns true if the last tokenized line was a waypoint, or a terminator
+	 * with a valid latitude, longitude and altitude.
+	 * @return
+	 */
+	public boolean hasPosition()
+	{
+		return type == WAYPOINT || hasPosition;
+	}
+	
+	public double getLatitude()
+	{
+		return latitude;
+	}
+	
+	public double getLongitude()
+	{
+		return longitude;
+	}
+	
+	public double getAltitude()
+	{
+		return altitude;
+	}
+	
+	/**
+	 * Returns the name of the route if the last line was a header (untrimmed), without copying it.
+	 * @return
+	 */
+	public CharSequence getName()
+	{
+		return line.subSequence(nameStart, nameEnd);
+	}
+	
+	/**
+	 * Returns the text of the last line without copying it: the description of a header or waypoint,
+	 * or the name of the route a pointer refers to.
+	 * @return
+	 */
+	public CharSequence getText()
+	{
+		return line.subSequence(textStart, textEnd);
+	}
+	
+	/**
+	 * Parses the three comma separated numbers of a position.
+	 * Returns false if any of them is not a number.
+	 */
+	private boolean parsePosition(int start, int comma1, int comma2, int end)
+	{
+		latitude = parseNumber(line, start, comma1);
+		longitude = parseNumber(line, comma1 + 1, comma2);
+		altitude = parseNumber(line, comma2 + 1, end);
+		return !Double.isNaN(latitude) && !Double.isNaN(longitude) && !Double.isNaN(altitude);
+	}
+	
+	/**
+	 * Parses a decimal number directly from a range of characters, ignoring surrounding whitespace.
+	 * Returns NaN if the characters are not a number.
+	 * Numbers with up to 15 significant digits and small exponents are parsed without allocating,
+	 * and give exactly the same result as Double.parseDouble. Longer numbers fall back to it.
+	 * @param chars
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static double parseNumber(CharSequence chars, int start, int end)
+	{
+		while(start < end && chars.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		while(end > start && chars.charAt(end - 1) <= ' ')
+		{
+			end--;
+		}
+		
+		int ii = start;
+		boolean negative = false;
+		if(ii < end && (chars.charAt(ii) == '-' || chars.charAt(ii) == '+'))
+		{
+			negative = chars.charAt(ii) == '-';
+			ii++;
+		}
+		
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean seenDigit = false, seenPoint = false;
+		for(; ii < end; ii++)
+		{
+			char c = chars.charAt(ii);
+			if(c >= '0' && c <= '9')
+			{
+				seenDigit = true;
+				// Leading zeros are not significant
+				if(mantissa != 0 || c != '0')
+				{
+					digits++;
+				}
+				if(digits <= 18)
+				{
+					mantissa = mantissa * 10 + (c - '0');
+					if(seenPoint)
+					{
+						scale--;
+					}
+				}else if(!seenPoint)
+				{
+					// Too many digits to hold, count the dropped ones for the slow path check
+					scale++;
+				}
+			}else if(c == '.' && !seenPoint)
+			{
+				seenPoint = true;
+			}else
+			{
+				break;
+			}
+		}
+		
+		if(!seenDigit)
+		{
+			return Double.NaN;
+		}
+		
+		if(ii < end && (chars.charAt(ii) == 'e' || chars.charAt(ii) == 'E'))
+		{
+			ii++;
+			boolean negativeExponent = false;
+			if(ii < end && (chars.charAt(ii) == '-' || chars.charAt(ii) == '+'))
+			{
+				negativeExponent = chars.charAt(ii) == '-';
+				ii++;
+			}
+			int exponent = 0;
+			boolean seenExponentDigit = false;
+			for(; ii < end && chars.charAt(ii) >= '0' && chars.charAt(ii) <= '9'; ii++)
+			{
+				seenExponentDigit = true;
+				if(exponent < 10000)
+				{
+					exponent = exponent * 10 + (chars.charAt(ii) - '0');
+				}
+			}
+			if(!seenExponentDigit)
+			{
+				return Double.NaN;
+			}
+			scale += negativeExponent ? -exponent : exponent;
+		}
+		
+		if(ii != end)
+		{
+			// Trailing characters that are not part of a number
+			return Double.NaN;
+		}
+		
+		double value;
+		if(digits <= 15 && mantissa < MAX_EXACT_MANTISSA && scale >= -22 && scale <= 22)
+		{
+			// Both the mantissa and the power of ten are exact, so a single
+			// multiplication or division is correctly rounded.
+			value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa * POWERS_OF_TEN[scale];
+		}else
+		{
+			try
+			{
+				value = Math.abs(Double.parseDouble(chars.subSequence(start, end).toString()));
+			}catch(NumberFormatException e)
+			{
+				return Double.NaN;
+			}
+		}
+		return negative ? -value : value;
+	}
+}
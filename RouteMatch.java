@@ -0,0 +1,86 @@
+package geoapp;
+
+/**
+ * Where a position lies on a route: the nearest segment, the point on it closest to the position,
+ * and how far the position is from it. A match is filled in by RouteMatcher, and can be reused.
+ */
+public class RouteMatch
+{
+	// Written by RouteMatcher
+	int segmentIndex = -1;
+	Segment segment;
+	double fraction, latitude, longitude;
+	double crossTrackDistance = Double.POSITIVE_INFINITY;
+	double distanceAlong;
+	
+	/**
+	 * Copies another match into this one.
+	 */
+	void set(RouteMatch other)
+	{
+		segmentIndex = other.segmentIndex;
+		segment = other.segment;
+		fraction = other.fraction;
+		latitude = other.latitude;
+		longitude = other.longitude;
+		crossTrackDistance = other.crossTrackDistance;
+		distanceAlong = other.distanceAlong;
+	}
+	
+	/**
+	 * Returns the index of the matched segment within the route's profile, or -1 if nothing was matched.
+	 * @return
+	 */
+	public int getSegmentIndex()
+	{
+		return segmentIndex;
+	}
+	
+	public Segment getSegment()
+	{
+		return segment;
+	}
+	
+	/**
+	 * Returns how far along the matched segment the matched point is, from 0 at its start to 1 at its end.
+	 * @return
+	 */
+	public double getFraction()
+	{
+		return fraction;
+	}
+	
+	public double getLatitude()
+	{
+		return latitude;
+	}
+	
+	public double getLongitude()
+	{
+		return longitude;
+	}
+	
+	/**
+	 * Returns the distance in metres from the position to the matched point.
+	 * @return
+	 */
+	public double getCrossTrackDistance()
+	{
+		return crossTrackDistance;
+	}
+	
+	/**
+	 * Returns the distance along the route from its start to the matched point.
+	 * @return
+	 */
+	public double getDistanceAlong()
+	{
+		return distanceAlong;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "segment " + segmentIndex + ", " + crossTrackDistance + "m away";
+	}
+}
@@ -0,0 +1,263 @@
+package geoapp;
+
+import java.util.Arrays;
+
+/**
+ * Finds the segment of a route nearest to a position, and the closest point on it. The segments are
+ * held in a bounding volume hierarchy: a binary tree of latitude/longitude boxes, each holding half of
+ * its parent's segments, so a match only visits the few boxes near the position rather than every segment.
+ * 
+ * Distances are measured on a plane tangent to the Earth at the position, which is accurate for the
+ * short distances a position is from its route. A matcher does not change once built, and can be used
+ * from any number of threads.
+ */
+public class RouteMatcher
+{
+	// The most segments a leaf of the tree holds
+	private static final int LEAF_SIZE = 4;
+	private static final double METRES_PER_DEGREE = Math.toRadians(1d) * GeoUtils.EARTH_RADIUS;
+	
+	private final RouteProfile profile;
+	
+	// The ends of each segment, with longitudes unwrapped so no segment crosses the antimeridian
+	private final double[] startLatitudes, startLongitudes, endLatitudes, endLongitudes;
+	// The longitude that query longitudes are unwrapped around
+	private final double referenceLongitude;
+	
+	// The segments in tree order: each node holds a contiguous range of them
+	private final int[] order;
+	private final double[] nodeMinLatitudes, nodeMaxLatitudes, nodeMinLongitudes, nodeMaxLongitudes;
+	// The range of each node within order, and the index of its first child (the second follows it), or -1 for a leaf
+	private final int[] nodeStarts, nodeEnds, nodeChildren;
+	private int nodeCount = 0;
+	
+	/**
+	 * Indexes the segments of a route's profile.
+	 * @param profile
+	 */
+	public RouteMatcher(RouteProfile profile)
+	{
+		this.profile = profile;
+		int count = profile.getSegmentCount();
+		startLatitudes = new double[count];
+		startLongitudes = new double[count];
+		endLatitudes = new double[count];
+		endLongitudes = new double[count];
+		double previous = count > 0 ? profile.getStartLongitude(0) : 0d;
+		referenceLongitude = previous;
+		for(int ii = 0; ii < count; ii++)
+		{
+			startLatitudes[ii] = profile.getStartLatitude(ii);
+			startLongitudes[ii] = unwrap(profile.getStartLongitude(ii), previous);
+			endLatitudes[ii] = profile.getEndLatitude(ii);
+			endLongitudes[ii] = unwrap(profile.getEndLongitude(ii), startLongitudes[ii]);
+			previous = endLongitudes[ii];
+		}
+		
+		order = new int[count];
+		for(int ii = 0; ii < count; ii++)
+		{
+			order[ii] = ii;
+		}
+		// A tree with leaves of at least LEAF_SIZE / 2 segments has fewer than count nodes
+		int maxNodes = Math.max(1, 2 * count);
+		nodeMinLatitudes = new double[maxNodes];
+		nodeMaxLatitudes = new double[maxNodes];
+		nodeMinLongitudes = new double[maxNodes];
+		nodeMaxLongitudes = new double[maxNodes];
+		nodeStarts = new int[maxNodes];
+		nodeEnds = new int[maxNodes];
+		nodeChildren = new int[maxNodes];
+		if(count > 0)
+		{
+			build(nodeCount++, 0, count);
+		}
+	}
+	
+	public RouteProfile getProfile()
+	{
+		return profile;
+	}
+	
+	/**
+	 * Finds the point on the route nearest to a position, and writes it to the given match.
+	 * Returns false, leaving the match unchanged, if the route has no segments.
+	 * @param latitude
+	 * @param longitude
+	 * @param match
+	 * @return
+	 */
+	public boolean match(double latitude, double longitude, RouteMatch match)
+	{
+		if(nodeCount == 0)
+		{
+			return false;
+		}
+		longitude = unwrap(longitude, referenceLongitude);
+		double metresPerLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+		
+		// The match holds the best segment so far while searching
+		match.segmentIndex = -1;
+		match.crossTrackDistance = Double.POSITIVE_INFINITY;
+		visit(0, latitude, longitude, metresPerLongitude, match);
+		
+		int segment = match.segmentIndex;
+		double fraction = match.fraction;
+		match.segment = profile.getSegment(segment);
+		match.latitude = startLatitudes[segment] + fraction * (endLatitudes[segment] - startLatitudes[segment]);
+		match.longitude = GeoPosition.wrapLongitude(startLongitudes[segment] + fraction * (endLongitudes[segment] - startLongitudes[segment]));
+		match.distanceAlong = profile.getDistanceBefore(segment) + fraction * match.segment.getHorizontalDistance();
+		return true;
+	}
+	
+	public boolean match(GeoPosition position, RouteMatch match)
+	{
+		return match(position.latitude, position.longitude, match);
+	}
+	
+	/**
+	 * Searches a node for a segment nearer than the best so far, visiting the nearer child first.
+	 */
+	private void visit(int node, double latitude, double longitude, double metresPerLongitude, RouteMatch best)
+	{
+		if(nodeChildren[node] < 0)
+		{
+			for(int ii = nodeStarts[node]; ii < nodeEnds[node]; ii++)
+			{
+				measure(order[ii], latitude, longitude, metresPerLongitude, best);
+			}
+			return;
+		}
+		
+		int first = nodeChildren[node], second = first + 1;
+		double firstDistance = boxDistance(first, latitude, longitude, metresPerLongitude);
+		double secondDistance = boxDistance(second, latitude, longitude, metresPerLongitude);
+		if(secondDistance < firstDistance)
+		{
+			int swap = first;
+			first = second;
+			second = swap;
+			double swapDistance = firstDistance;
+			firstDistance = secondDistance;
+			secondDistance = swapDistance;
+		}
+		if(firstDistance < best.crossTrackDistance)
+		{
+			visit(first, latitude, longitude, metresPerLongitude, best);
+		}
+		if(secondDistance < best.crossTrackDistance)
+		{
+			visit(second, latitude, longitude, metresPerLongitude, best);
+		}
+	}
+	
+	/**
+	 * Projects the position onto a segment, keeping it if it is the nearest so far.
+	 * Ties go to the earlier segment.
+	 */
+	private void measure(int segment, double latitude, double longitude, double metresPerLongitude, RouteMatch best)
+	{
+		// The ends of the segment in metres from the position
+		double startX = (startLongitudes[segment] - longitude) * metresPerLongitude;
+		double startY = (startLatitudes[segment] - latitude) * METRES_PER_DEGREE;
+		double deltaX = (endLongitudes[segment] - longitude) * metresPerLongitude - startX;
+		double deltaY = (endLatitudes[segment] - latitude) * METRES_PER_DEGREE - startY;
+		
+		double lengthSquared = deltaX * deltaX + deltaY * deltaY;
+		double fraction = 0d;
+		if(lengthSquared > 0d)
+		{
+			fraction = Math.max(0d, Math.min(1d, -(startX * deltaX + startY * deltaY) / lengthSquared));
+		}
+		double x = startX + fraction * deltaX;
+		double y = startY + fraction * deltaY;
+		double distance = Math.sqrt(x * x + y * y);
+		if(distance < best.crossTrackDistance || (distance == best.crossTrackDistance && segment < best.segmentIndex))
+		{
+			best.segmentIndex = segment;
+			best.fraction = fraction;
+			best.crossTrackDistance = distance;
+		}
+	}
+	
+	/**
+	 * Returns the distance from the position to the nearest point of a node's box,
+	 * or 0 if the position is inside it.
+	 */
+	private double boxDistance(int node, double latitude, double longitude, double metresPerLongitude)
+	{
+		double y = Math.max(0d, Math.max(nodeMinLatitudes[node] - latitude, latitude - nodeMaxLatitudes[node])) * METRES_PER_DEGREE;
+		double x = Math.max(0d, Math.max(nodeMinLongitudes[node] - longitude, longitude - nodeMaxLongitudes[node])) * metresPerLongitude;
+		return Math.sqrt(x * x + y * y);
+	}
+	
+	/**
+	 * Fills in a node covering a range of order, splitting it in two at the median
+	 * of the segments' midpoints along the longer side of its box.
+	 */
+	private void build(int node, int start, int end)
+	{
+		double minLatitude = Double.POSITIVE_INFINITY, maxLatitude = Double.NEGATIVE_INFINITY;
+		double minLongitude = Double.POSITIVE_INFINITY, maxLongitude = Double.NEGATIVE_INFINITY;
+		for(int ii = start; ii < end; ii++)
+		{
+			int segment = order[ii];
+			minLatitude = Math.min(minLatitude, Math.min(startLatitudes[segment], endLatitudes[segment]));
+			maxLatitude = Math.max(maxLatitude, Math.max(startLatitudes[segment], endLatitudes[segment]));
+			minLongitude = Math.min(minLongitude, Math.min(startLongitudes[segment], endLongitudes[segment]));
+			maxLongitude = Math.max(maxLongitude, Math.max(startLongitudes[segment], endLongitudes[segment]));
+		}
+		nodeMinLatitudes[node] = minLatitude;
+		nodeMaxLatitudes[node] = maxLatitude;
+		nodeMinLongitudes[node] = minLongitude;
+		nodeMaxLongitudes[node] = maxLongitude;
+		nodeStarts[node] = start;
+		nodeEnds[node] = end;
+		
+		if(end - start <= LEAF_SIZE)
+		{
+			nodeChildren[node] = -1;
+			return;
+		}
+		
+		// Sort by midpoint, as a fixed point number in the upper half of a long and the segment in the lower half
+		boolean byLatitude = maxLatitude - minLatitude > (maxLongitude - minLongitude) * Math.cos(Math.toRadians((minLatitude + maxLatitude) / 2d));
+		long[] keys = new long[end - start];
+		for(int ii = start; ii < end; ii++)
+		{
+			int segment = order[ii];
+			double midpoint = byLatitude
+					? (startLatitudes[segment] + endLatitudes[segment]) / 2d
+					: (startLongitudes[segment] + endLongitudes[segment]) / 2d;
+			keys[ii - start] = (long)Math.max(0d, (midpoint + 720d) * 1e6) << 32 | segment;
+		}
+		Arrays.sort(keys);
+		for(int ii = start; ii < end; ii++)
+		{
+			order[ii] = (int)keys[ii - start];
+		}
+		
+		int middle = (start + end) >>> 1;
+		int children = nodeCount;
+		nodeCount += 2;
+		nodeChildren[node] = children;
+		build(children, start, middle);
+		build(children + 1, middle, end);
+	}
+	
+	/**
+	 * Returns the longitude equal to the given one (give or take 360 degrees) that is nearest to the reference.
+	 */
+	private static double unwrap(double longitude, double reference)
+	{
+		while(longitude - reference > 180d)
+		{
+			longitude -= 360d;
+		}
+		while(longitude - reference < -180d)
+		{
+			longitude += 360d;
+		}
+		return longitude;
+	}
+}
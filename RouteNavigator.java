@@ -1,19 +1,43 @@
 package geoapp;
 
-import java.util.concurrent.locks.ReentrantLock;
-
 /**
  * Handles events from the GpsLocator and traverses the current route.
- *
+ * 
+ * The position and current segment are published together without locking, and a fix is taken
+ * without allocating, so they can be read from any thread while fixes arrive at a high rate.
+ * A GeoPosition is only built when the position is asked for, and is shared until the next fix.
+ * 
+ * The results of each fix are passed to App, unless the navigator was given a handler of its own.
  */
 public class RouteNavigator extends GpsLocator
 {
 	private CompositeRoute route;
-	private Segment currentSegment;
-	private GeoPosition currentPosition;
-	private ReentrantLock positionLock = new ReentrantLock();
+	private final NavigationState state = new NavigationState();
+	// The last position built from the state, reused while the position is unchanged
+	private volatile GeoPosition lastPosition;
 	
+	// Where the current position lies on the route, only used on the thread receiving locations
+	private final RouteMatch match = new RouteMatch();
+	private boolean matched = false, offRoute = false;
+	// Positions further than this from the route are off it, and must come back within the rejoin distance
+	private double offRouteDistance = 30d, rejoinDistance = 20d;
+	// Receives the results of each fix, or null to pass them to App
+	private final NavigationEventRing.Handler handler;
 	
+	public RouteNavigator()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Creates a navigator that passes the results of each fix to the given handler,
+	 * on the thread receiving locations.
+	 * @param handler
+	 */
+	public RouteNavigator(NavigationEventRing.Handler handler)
+	{
+		this.handler = handler;
+	}
 	
 	public void setRoute(CompositeRoute route)
 	{
@@ -21,22 +45,25 @@ public class RouteNavigator extends GpsLocator
 		reset();
 	}
 	
+	public CompositeRoute getRoute()
+	{
+		return route;
+	}
+	
 	public void reset()
 	{
-		if(route != null)
-		{
-			route.resetIterator();
-			if(route.hasNext())
-			{
-				currentSegment = route.next();
-			}else
-			{
-				currentSegment = null;
-			}
-		}else
-		{
-			currentSegment = null;
-		}
+		RouteProfile profile = route == null ? null : route.getProfile();
+		RouteMatcher matcher = route == null ? null : route.getMatcher();
+		ElevationIndex elevationIndex = route == null ? null : route.getElevationIndex();
+		
+		long stamp = state.beginWrite();
+		state.profile = profile;
+		state.matcher = matcher;
+		state.elevationIndex = elevationIndex;
+		state.segmentIndex = 0;
+		state.endWrite(stamp);
+		matched = false;
+		offRoute = false;
 	}
 	
 	/**
@@ -45,28 +72,318 @@ public class RouteNavigator extends GpsLocator
 	 */
 	public GeoPosition getCurrentPosition()
 	{
-		return currentPosition;
+		double latitude, longitude, altitude;
+		boolean hasPosition;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			hasPosition = state.hasPosition;
+			latitude = state.latitude;
+			longitude = state.longitude;
+			altitude = state.altitude;
+		}while(!state.validate(stamp));
+		return hasPosition ? getPosition(latitude, longitude, altitude) : null;
 	}
 	
 	public double distanceToNextWaypoint()
 	{
-		GeoPosition nextPosition = getNextWaypoint().getPosition();
-		return GeoUtils.calcMetresDistance(currentPosition.latitude, currentPosition.longitude, nextPosition.latitude, nextPosition.longitude);
+		RouteProfile profile;
+		int index;
+		double latitude, longitude;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			profile = state.profile;
+			index = state.segmentIndex;
+			latitude = state.latitude;
+			longitude = state.longitude;
+		}while(!state.validate(stamp));
+		
+		GeoPosition nextPosition = getSegment(profile, index).getEndWaypoint().getPosition();
+		return GeoUtils.getProximityEngine().distance(latitude, longitude, nextPosition);
 	}
 	
 	public Waypoint getNextWaypoint()
 	{
+		Segment currentSegment = getCurrentSegment();
 		return currentSegment == null ? null : currentSegment.getEndWaypoint();
 	}
 	
 	public Segment getCurrentSegment()
 	{
-		return currentSegment;
+		RouteProfile profile;
+		int index;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			profile = state.profile;
+			index = state.segmentIndex;
+		}while(!state.validate(stamp));
+		return getSegment(profile, index);
 	}
 	
 	public void moveNext()
 	{
-		currentSegment = route.next();
+		long stamp = state.beginWrite();
+		if(state.profile != null && state.segmentIndex < state.profile.getSegmentCount())
+		{
+			state.segmentIndex++;
+		}
+		state.endWrite(stamp);
+	}
+	
+	/**
+	 * Returns the distance covered along the route, up to the point on the current segment
+	 * as far from its end as the current position. Returns 0 before any position is received.
+	 * @return
+	 */
+	public double getDistanceTravelled()
+	{
+		RouteProfile profile;
+		int index;
+		boolean hasPosition;
+		double latitude, longitude;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			profile = state.profile;
+			index = state.segmentIndex;
+			hasPosition = state.hasPosition;
+			latitude = state.latitude;
+			longitude = state.longitude;
+		}while(!state.validate(stamp));
+		
+		if(profile == null)
+		{
+			return 0d;
+		}
+		if(index >= profile.getSegmentCount())
+		{
+			// Every waypoint has been reached
+			return profile.getTotalDistance();
+		}
+		return profile.getDistanceBefore(index) + getSegmentTravelled(profile.getSegment(index), hasPosition, latitude, longitude);
+	}
+	
+	/**
+	 * Returns the distance left to the end of the route.
+	 * @return
+	 */
+	public double getDistanceRemaining()
+	{
+		RouteProfile profile = getProfile();
+		return profile == null ? 0d : profile.getTotalDistance() - getDistanceTravelled();
+	}
+	
+	/**
+	 * Returns the fraction of the route's distance covered so far, from 0 to 1.
+	 * @return
+	 */
+	public double getProgress()
+	{
+		RouteProfile profile = getProfile();
+		if(profile == null || profile.getTotalDistance() <= 0d)
+		{
+			return getCurrentSegment() == null && profile != null ? 1d : 0d;
+		}
+		return getDistanceTravelled() / profile.getTotalDistance();
+	}
+	
+	/**
+	 * Returns the height still to be climbed before the end of the route, assuming the current
+	 * segment climbs evenly along its length.
+	 * @return
+	 */
+	public double getClimbRemaining()
+	{
+		RouteProfile profile;
+		ElevationIndex elevationIndex;
+		int index;
+		boolean hasPosition;
+		double latitude, longitude;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			profile = state.profile;
+			elevationIndex = state.elevationIndex;
+			index = state.segmentIndex;
+			hasPosition = state.hasPosition;
+			latitude = state.latitude;
+			longitude = state.longitude;
+		}while(!state.validate(stamp));
+		
+		Segment currentSegment = getSegment(profile, index);
+		if(currentSegment == null)
+		{
+			return 0d;
+		}
+		return elevationIndex.getClimbRemaining(index, getSegmentTravelled(currentSegment, hasPosition, latitude, longitude));
+	}
+	
+	/**
+	 * Works out what the current position means for the route, and passes it to the handler:
+	 * the position update, leaving or rejoining the route, and reaching the next waypoint.
+	 * @param handler
+	 */
+	public void update(NavigationEventRing.Handler handler)
+	{
+		handler.positionUpdated();
+		
+		if(updateMatch())
+		{
+			handler.eventReceived(offRoute ? NavigationEventRing.OFF_ROUTE : NavigationEventRing.REJOINED_ROUTE, null, match);
+		}
+		
+		// Check if we've reached the next waypoint (there is none once the route is finished)
+		if(getNextWaypoint() != null && distanceToNextWaypoint() < 10d)
+		{
+			moveNext();
+			handler.eventReceived(NavigationEventRing.WAYPOINT_REACHED, getNextWaypoint(), null);
+		}
+	}
+	
+	/**
+	 * Matches the current position to the nearest point of the route.
+	 * Returns true if this took the position off the route, or back onto it.
+	 * @return
+	 */
+	public boolean updateMatch()
+	{
+		RouteMatcher matcher;
+		boolean hasPosition;
+		double latitude, longitude;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			matcher = state.matcher;
+			hasPosition = state.hasPosition;
+			latitude = state.latitude;
+			longitude = state.longitude;
+		}while(!state.validate(stamp));
+		
+		if(matcher == null || !hasPosition || !matcher.match(latitude, longitude, match))
+		{
+			return false;
+		}
+		matched = true;
+		
+		boolean wasOffRoute = offRoute;
+		if(offRoute)
+		{
+			offRoute = match.getCrossTrackDistance() > rejoinDistance;
+		}else
+		{
+			offRoute = match.getCrossTrackDistance() > offRouteDistance;
+		}
+		return offRoute != wasOffRoute;
+	}
+	
+	/**
+	 * Returns where the current position was last matched to the route,
+	 * or null if no position has been matched since the route was set.
+	 * @return
+	 */
+	public RouteMatch getMatch()
+	{
+		return matched ? match : null;
+	}
+	
+	/**
+	 * Returns true if the last matched position was too far from the route.
+	 * @return
+	 */
+	public boolean isOffRoute()
+	{
+		return offRoute;
+	}
+	
+	/**
+	 * Sets how far from the route a position must be to leave it, and how close it must come to rejoin it.
+	 * @param offRouteDistance
+	 * @param rejoinDistance
+	 * @throws IllegalArgumentException if the rejoin distance is greater than the off route distance
+	 */
+	public void setOffRouteDistances(double offRouteDistance, double rejoinDistance) throws IllegalArgumentException
+	{
+		if(rejoinDistance > offRouteDistance)
+		{
+			throw new IllegalArgumentException("rejoin distance must not be greater than off route distance");
+		}
+		this.offRouteDistance = offRouteDistance;
+		this.rejoinDistance = rejoinDistance;
+	}
+	
+	/**
+	 * Returns the segment at the given distance along the route, or null if there is no route.
+	 * @param distance
+	 * @return
+	 */
+	public Segment getSegmentAt(double distance)
+	{
+		RouteProfile profile = getProfile();
+		int index = profile == null ? -1 : profile.findSegment(distance);
+		return index < 0 ? null : profile.getSegment(index);
+	}
+	
+	private RouteProfile getProfile()
+	{
+		RouteProfile profile;
+		long stamp;
+		do
+		{
+			stamp = state.beginRead();
+			profile = state.profile;
+		}while(!state.validate(stamp));
+		return profile;
+	}
+	
+	/**
+	 * Returns the segment with the given index, or null past the end of the route or if there is no route.
+	 */
+	private static Segment getSegment(RouteProfile profile, int index)
+	{
+		return profile == null || index >= profile.getSegmentCount() ? null : profile.getSegment(index);
+	}
+	
+	/**
+	 * Returns the position with the given (wrapped) coordinates, reusing the last one built if it matches.
+	 */
+	private GeoPosition getPosition(double latitude, double longitude, double altitude)
+	{
+		GeoPosition position = lastPosition;
+		if(position == null || position.latitude != latitude || position.longitude != longitude || position.altitude != altitude)
+		{
+			position = new GeoPosition(latitude, longitude, altitude);
+			lastPosition = position;
+		}
+		return position;
+	}
+	
+	/**
+	 * How far along a segment the given position is, from how far it is from the segment's end.
+	 * The fraction is worked out with the proximity engine, and applied to the measured segment length.
+	 */
+	private static double getSegmentTravelled(Segment segment, boolean hasPosition, double latitude, double longitude)
+	{
+		if(!hasPosition)
+		{
+			return 0d;
+		}
+		DistanceEngine engine = GeoUtils.getProximityEngine();
+		GeoPosition end = segment.getEndWaypoint().getPosition();
+		double length = engine.distance(segment.getStartWaypoint().getPosition(), end);
+		if(length <= 0d)
+		{
+			return 0d;
+		}
+		double fraction = 1d - engine.distance(latitude, longitude, end) / length;
+		return Math.max(0d, Math.min(1d, fraction)) * segment.getHorizontalDistance();
 	}
 
 	/**
@@ -75,9 +392,22 @@ public class RouteNavigator extends GpsLocator
 	@Override
 	public void locationReceived(double latitude, double longitude, double altitude)
 	{
-		positionLock.lock();
-		currentPosition = new GeoPosition(latitude, longitude, altitude);
-		positionLock.unlock();
-		App.updatePosition();
+		// Wrapped here, so a reader can compare them to the last position built
+		latitude = GeoPosition.wrapLatitude(latitude);
+		longitude = GeoPosition.wrapLongitude(longitude);
+		
+		long stamp = state.beginWrite();
+		state.hasPosition = true;
+		state.latitude = latitude;
+		state.longitude = longitude;
+		state.altitude = altitude;
+		state.endWrite(stamp);
+		if(handler == null)
+		{
+			App.updatePosition();
+		}else
+		{
+			update(handler);
+		}
 	}
 }
@@ -0,0 +1,423 @@
+package geoapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds routes from blocks of unparsed route data, resolving the pointers between them.
+ * Each route is built at most once, and that same instance (less the line ending its block) is added as a
+ * subroute of every route pointing to it, so the memory used grows with the unique geometry rather than
+ * the expanded geometry.
+ * Circular pointers are found with an iterative version of Tarjan's strongly connected components
+ * algorithm, so deep pointer chains cannot overflow the stack. Any route that is part of, or points
+ * into, a cycle is invalid, as is any route pointing to a route that does not exist.
+ */
+class RoutePointerResolver
+{
+	private static final int UNVISITED = -1;
+	static final int MISSING = -1;
+	
+	// The number of routes built by a single task when building in parallel
+	private static final int ROUTES_PER_TASK = 4;
+	
+	private final ArrayList<RouteBlock> blocks;
+	
+	// Maps route names to their index, the first route with a given name wins.
+	private final HashMap<String, Integer> routeIndices = new HashMap<String, Integer>();
+	
+	// The index of the route each pointer of a route refers to (in order), or MISSING.
+	private final int[][] pointers;
+	
+	// Whether each resolved route is valid, and the length of the longest pointer chain below it
+	private final boolean[] valid;
+	private final int[] levels;
+	
+	// The built routes, null if a route has not been built or could not be built.
+	private final CompositeRoute[] routes;
+	private final boolean[] built;
+	
+	// Routes are built as soon as they are resolved, unless only their validity is wanted
+	private boolean buildOnResolve = true;
+	
+	// Tarjan's algorithm state
+	private final int[] visitOrder, lowLink, edgeCursor, callStack, componentStack;
+	private final boolean[] onStack;
+	private int visitCount = 0, componentSize = 0;
+	
+	public RoutePointerResolver(ArrayList<RouteBlock> blocks)
+	{
+		this.blocks = blocks;
+		int count = blocks.size();
+		for(int ii = 0; ii < count; ii++)
+		{
+			String name = blocks.get(ii).name;
+			if(!routeIndices.containsKey(name))
+			{
+				routeIndices.put(name, ii);
+			}
+		}
+		
+		pointers = new int[count][];
+		valid = new boolean[count];
+		levels = new int[count];
+		routes = new CompositeRoute[count];
+		built = new boolean[count];
+		visitOrder = new int[count];
+		lowLink = new int[count];
+		edgeCursor = new int[count];
+		callStack = new int[count];
+		componentStack = new int[count];
+		onStack = new boolean[count];
+		for(int ii = 0; ii < count; ii++)
+		{
+			visitOrder[ii] = UNVISITED;
+		}
+	}
+	
+	/**
+	 * Supplies an already built route for the block at the given index, which is then shared
+	 * instead of building the block again. The route must have been built from the same lines,
+	 * and from the same versions of the routes it points to. Null marks the block as unbuildable.
+	 * @param index
+	 * @param route
+	 */
+	public void setRoute(int index, CompositeRoute route)
+	{
+		routes[index] = route;
+		built[index] = true;
+		getPointers(index);
+		blocks.set(index, blocks.get(index).withoutLines());
+	}
+	
+	/**
+	 * Returns the route built from the block at the given index, building it and every route it
+	 * points to if necessary, or null if the route is invalid.
+	 * @param index
+	 * @return
+	 */
+	public CompositeRoute build(int index)
+	{
+		if(visitOrder[index] == UNVISITED)
+		{
+			resolve(index);
+		}else if(valid[index] && !built[index])
+		{
+			// Resolved by isValid(), build it and the routes below it in order of level
+			ArrayList<Integer> unbuilt = new ArrayList<Integer>();
+			ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+			HashSet<Integer> found = new HashSet<Integer>();
+			pending.add(index);
+			found.add(index);
+			while(!pending.isEmpty())
+			{
+				int route = pending.poll();
+				unbuilt.add(route);
+				for(int target : getPointers(route))
+				{
+					if(!built[target] && found.add(target))
+					{
+						pending.add(target);
+					}
+				}
+			}
+			Collections.sort(unbuilt, new Comparator<Integer>()
+			{
+				@Override
+				public int compare(Integer a, Integer b)
+				{
+					return Integer.compare(levels[a], levels[b]);
+				}
+			});
+			for(int route : unbuilt)
+			{
+				buildRoute(route);
+			}
+		}
+		return routes[index];
+	}
+	
+	/**
+	 * Returns true if the block at the given index holds no malformed lines, and only points to
+	 * valid routes that are not part of a cycle. No routes are built.
+	 * @param index
+	 * @return
+	 */
+	public boolean isValid(int index)
+	{
+		if(visitOrder[index] == UNVISITED)
+		{
+			buildOnResolve = false;
+			resolve(index);
+			buildOnResolve = true;
+		}
+		return valid[index];
+	}
+	
+	/**
+	 * Builds every route that has not been built yet using the given number of threads, and returns
+	 * the route built from each block, null where a block did not form a valid route. Routes are
+	 * built in waves: first the routes without pointers, then the routes only pointing to those,
+	 * and so on, with the routes of a wave built concurrently.
+	 * @param parallelism
+	 * @return
+	 */
+	public CompositeRoute[] buildAll(int parallelism)
+	{
+		int count = blocks.size();
+		int maxLevel = 0;
+		for(int ii = 0; ii < count; ii++)
+		{
+			if(isValid(ii))
+			{
+				maxLevel = Math.max(maxLevel, levels[ii]);
+			}
+		}
+		
+		// Group the routes still to be built by level
+		int[] waveSizes = new int[maxLevel + 1];
+		for(int ii = 0; ii < count; ii++)
+		{
+			if(valid[ii] && !built[ii])
+			{
+				waveSizes[levels[ii]]++;
+			}
+		}
+		int[][] waves = new int[maxLevel + 1][];
+		for(int level = 0; level <= maxLevel; level++)
+		{
+			waves[level] = new int[waveSizes[level]];
+			waveSizes[level] = 0;
+		}
+		for(int ii = 0; ii < count; ii++)
+		{
+			if(valid[ii] && !built[ii])
+			{
+				waves[levels[ii]][waveSizes[levels[ii]]++] = ii;
+			}
+		}
+		
+		ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try
+		{
+			for(int[] wave : waves)
+			{
+				BuildTask task = new BuildTask(wave, 0, wave.length);
+				if(pool == null)
+				{
+					task.build();
+				}else
+				{
+					pool.invoke(task);
+				}
+			}
+		}finally
+		{
+			if(pool != null)
+			{
+				pool.shutdown();
+			}
+		}
+		return routes.clone();
+	}
+	
+	/**
+	 * Runs Tarjan's algorithm from the given route. Components are completed in reverse
+	 * topological order, so every route a component points to is resolved before it.
+	 */
+	private void resolve(int root)
+	{
+		int depth = 0;
+		visit(root);
+		callStack[depth++] = root;
+		
+		while(depth > 0)
+		{
+			int route = callStack[depth - 1];
+			int[] targets = getPointers(route);
+			if(edgeCursor[route] < targets.length)
+			{
+				int target = targets[edgeCursor[route]++];
+				if(target == MISSING)
+				{
+					// Handled once the route's component is complete
+				}else if(visitOrder[target] == UNVISITED)
+				{
+					visit(target);
+					callStack[depth++] = target;
+				}else if(onStack[target])
+				{
+					lowLink[route] = Math.min(lowLink[route], visitOrder[target]);
+				}
+			}else
+			{
+				// All pointers of this route have been followed, return to the caller
+				depth--;
+				if(depth > 0)
+				{
+					int caller = callStack[depth - 1];
+					lowLink[caller] = Math.min(lowLink[caller], lowLink[route]);
+				}
+				
+				if(lowLink[route] == visitOrder[route])
+				{
+					completeComponent(route);
+				}
+			}
+		}
+	}
+	
+	private void visit(int route)
+	{
+		visitOrder[route] = visitCount;
+		lowLink[route] = visitCount;
+		visitCount++;
+		edgeCursor[route] = 0;
+		componentStack[componentSize++] = route;
+		onStack[route] = true;
+	}
+	
+	/**
+	 * Returns the index of the route each pointer of the given route refers to,
+	 * in the order they appear, or MISSING if there is no route with that name.
+	 * @param route
+	 * @return
+	 */
+	public int[] getPointers(int route)
+	{
+		if(pointers[route] != null)
+		{
+			return pointers[route];
+		}
+		
+		// Find the routes this route points to
+		RouteBlock block = blocks.get(route);
+		int[] result = new int[0];
+		if(block.hasPointers())
+		{
+			ArrayList<Integer> targets = new ArrayList<Integer>();
+			for(int ii = 0; ii < block.size(); ii++)
+			{
+				if(block.getType(ii) == RouteLineTokenizer.POINTER)
+				{
+					Integer target = routeIndices.get(block.getText(ii));
+					targets.add(target == null ? MISSING : target);
+				}
+			}
+			result = new int[targets.size()];
+			for(int ii = 0; ii < result.length; ii++)
+			{
+				result[ii] = targets.get(ii);
+			}
+		}
+		pointers[route] = result;
+		return result;
+	}
+	
+	/**
+	 * Pops the strongly connected component rooted at the given route.
+	 * A component with more than one route is a cycle, and all of its routes are invalid.
+	 */
+	private void completeComponent(int root)
+	{
+		int member;
+		boolean circular = componentStack[componentSize - 1] != root;
+		do
+		{
+			member = componentStack[--componentSize];
+			onStack[member] = false;
+		}while(member != root);
+		
+		if(circular)
+		{
+			return;
+		}
+		
+		// The route is valid if every route it points to is valid (which excludes pointers to itself)
+		boolean isValid = blocks.get(root).isValid();
+		int level = 0;
+		for(int target : getPointers(root))
+		{
+			if(target == MISSING || target == root || !valid[target])
+			{
+				isValid = false;
+			}else
+			{
+				level = Math.max(level, levels[target] + 1);
+			}
+		}
+		valid[root] = isValid;
+		levels[root] = level;
+		
+		if(isValid && buildOnResolve && !built[root])
+		{
+			buildRoute(root);
+		}
+	}
+	
+	/**
+	 * Builds a valid route, sharing the routes it points to, which must already be built.
+	 * The lines of the route's block are dropped once it is built, as they are not needed again.
+	 */
+	private void buildRoute(int route)
+	{
+		int[] targets = getPointers(route);
+		CompositeRoute[] subroutes = new CompositeRoute[targets.length];
+		for(int ii = 0; ii < targets.length; ii++)
+		{
+			subroutes[ii] = routes[targets[ii]];
+		}
+		RouteBlock block = blocks.get(route);
+		routes[route] = CompositeRoute.build(block, subroutes);
+		built[route] = true;
+		blocks.set(route, block.withoutLines());
+	}
+	
+	/**
+	 * Builds a range of routes within a wave, splitting the range
+	 * in half until it is small enough to build directly.
+	 */
+	private class BuildTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] wave;
+		private final int start, end;
+		
+		public BuildTask(int[] wave, int start, int end)
+		{
+			this.wave = wave;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(end - start <= ROUTES_PER_TASK)
+			{
+				build();
+			}else
+			{
+				int middle = (start + end) >>> 1;
+				invokeAll(new BuildTask(wave, start, middle), new BuildTask(wave, middle, end));
+			}
+		}
+		
+		/**
+		 * Builds the whole range on the current thread.
+		 */
+		void build()
+		{
+			for(int ii = start; ii < end; ii++)
+			{
+				buildRoute(wave[ii]);
+			}
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package geoapp;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The segments of a route in order, with the distance, ascension and descension covered before each
+ * segment starts. Answers how far along the route a segment is in O(1), and which segment is at a
+ * given distance along the route in O(log n).
+ * 
+ * The waypoints of the segments are held in columns, read from each part of the route with a waypoint
+ * cursor. Segment objects are only created when they are asked for, and are then kept.
+ */
+public class RouteProfile
+{
+	// The waypoints of each part of the route in turn. Segment i runs from waypoint starts[i] to the one after it
+	private final double[] latitudes, longitudes, altitudes;
+	private final String[] descriptions;
+	private final int[] starts;
+	
+	// Built the first time each is asked for
+	private final AtomicReferenceArray<Segment> segments;
+	
+	// Entry i is the total up to the start of segment i, the last entry is the total of the route
+	private final double[] distances, ascensions, descensions;
+	
+	/**
+	 * Builds the profile of a route, walking each part of it with a waypoint cursor of its own.
+	 * @param route
+	 */
+	public RouteProfile(Route route)
+	{
+		ArrayList<Route> parts = new ArrayList<Route>();
+		addParts(route, parts);
+		int waypointCount = 0, segmentCount = 0, longest = 0;
+		for(Route part : parts)
+		{
+			waypointCount += part.getNumWaypoints();
+			segmentCount += part.getNumWaypoints() - 1;
+			longest = Math.max(longest, part.getNumWaypoints());
+		}
+		
+		latitudes = new double[waypointCount];
+		longitudes = new double[waypointCount];
+		altitudes = new double[waypointCount];
+		descriptions = new String[waypointCount];
+		starts = new int[segmentCount];
+		segments = new AtomicReferenceArray<Segment>(segmentCount);
+		distances = new double[segmentCount + 1];
+		ascensions = new double[segmentCount + 1];
+		descensions = new double[segmentCount + 1];
+		
+		// Distances are measured a part at a time, as the engine measures from the start of its arrays
+		double[] partLatitudes = new double[longest];
+		double[] partLongitudes = new double[longest];
+		double[] partDistances = new double[longest];
+		int waypoint = 0, segment = 0;
+		for(Route part : parts)
+		{
+			int first = waypoint;
+			WaypointCursor cursor = part.waypointCursor();
+			while(cursor.next())
+			{
+				latitudes[waypoint] = cursor.getLatitude();
+				longitudes[waypoint] = cursor.getLongitude();
+				altitudes[waypoint] = cursor.getAltitude();
+				descriptions[waypoint] = cursor.getDescription();
+				waypoint++;
+			}
+			
+			int count = waypoint - first;
+			System.arraycopy(latitudes, first, partLatitudes, 0, count);
+			System.arraycopy(longitudes, first, partLongitudes, 0, count);
+			GeoUtils.getMeasurementEngine().distances(partLatitudes, partLongitudes, count, partDistances);
+			for(int ii = 0; ii < count - 1; ii++)
+			{
+				starts[segment] = first + ii;
+				double heightDelta = altitudes[first + ii + 1] - altitudes[first + ii];
+				distances[segment + 1] = distances[segment] + partDistances[ii];
+				ascensions[segment + 1] = ascensions[segment] + (heightDelta >= 0d ? heightDelta : 0d);
+				descensions[segment + 1] = descensions[segment] + (heightDelta < 0d ? -heightDelta : 0d);
+				segment++;
+			}
+		}
+	}
+	
+	/**
+	 * Adds the parts of a route that hold its segments, flattening routes made of subroutes.
+	 */
+	private static void addParts(Route route, ArrayList<Route> parts)
+	{
+		if(route instanceof CompositeRoute)
+		{
+			for(Route subroute : ((CompositeRoute)route).getSubroutes())
+			{
+				addParts(subroute, parts);
+			}
+		}else if(route.getNumWaypoints() > 1)
+		{
+			parts.add(route);
+		}
+	}
+	
+	public int getSegmentCount()
+	{
+		return starts.length;
+	}
+	
+	/**
+	 * Returns the segment at the given index, the same object every time it is asked for.
+	 * @param index
+	 * @return
+	 */
+	public Segment getSegment(int index)
+	{
+		Segment result = segments.get(index);
+		if(result == null)
+		{
+			result = new Segment(getWaypoint(starts[index]), getWaypoint(starts[index] + 1));
+			if(!segments.compareAndSet(index, null, result))
+			{
+				result = segments.get(index);
+			}
+		}
+		return result;
+	}
+	
+	private Waypoint getWaypoint(int index)
+	{
+		return new Waypoint(descriptions[index], new GeoPosition(latitudes[index], longitudes[index], altitudes[index]));
+	}
+	
+	public double getStartLatitude(int segment)
+	{
+		return latitudes[starts[segment]];
+	}
+	
+	public double getStartLongitude(int segment)
+	{
+		return longitudes[starts[segment]];
+	}
+	
+	public double getStartAltitude(int segment)
+	{
+		return altitudes[starts[segment]];
+	}
+	
+	public double getEndLatitude(int segment)
+	{
+		return latitudes[starts[segment] + 1];
+	}
+	
+	public double getEndLongitude(int segment)
+	{
+		return longitudes[starts[segment] + 1];
+	}
+	
+	public double getEndAltitude(int segment)
+	{
+		return altitudes[starts[segment] + 1];
+	}
+	
+	/**
+	 * Returns the length of the given segment.
+	 * @param segment
+	 * @return
+	 */
+	public double getSegmentDistance(int segment)
+	{
+		return distances[segment + 1] - distances[segment];
+	}
+	
+	/**
+	 * Returns the distance along the route to the start of the given segment.
+	 * An index equal to the number of segments gives the length of the whole route.
+	 * @param index
+	 * @return
+	 */
+	public double getDistanceBefore(int index)
+	{
+		return distances[index];
+	}
+	
+	/**
+	 * Returns the height climbed before the start of the given segment.
+	 * @param index
+	 * @return
+	 */
+	public double getAscensionBefore(int index)
+	{
+		return ascensions[index];
+	}
+	
+	/**
+	 * Returns the height descended before the start of the given segment.
+	 * @param index
+	 * @return
+	 */
+	public double getDescensionBefore(int index)
+	{
+		return descensions[index];
+	}
+	
+	public double getTotalDistance()
+	{
+		return distances[starts.length];
+	}
+	
+	public double getTotalAscension()
+	{
+		return ascensions[starts.length];
+	}
+	
+	public double getTotalDescension()
+	{
+		return descensions[starts.length];
+	}
+	
+	/**
+	 * Returns the index of the segment covering the given distance along the route.
+	 * Distances before the start give the first segment, and distances past the end give the last.
+	 * Returns -1 if the route has no segments.
+	 * @param distance
+	 * @return
+	 */
+	public int findSegment(double distance)
+	{
+		if(starts.length == 0)
+		{
+			return -1;
+		}
+		
+		// Find the last segment starting at or before the distance
+		int low = 0, high = starts.length - 1;
+		while(low < high)
+		{
+			int middle = (low + high + 1) >>> 1;
+			if(distances[middle] <= distance)
+			{
+				low = middle;
+			}else
+			{
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+}
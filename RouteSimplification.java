@@ -0,0 +1,264 @@
+package geoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simplified copies of a route at a set of tolerances, made with the Douglas-Peucker algorithm:
+ * a copy keeps just enough waypoints that no waypoint of the route is further than the tolerance
+ * from the simplified path. Each copy is stored as the indices of the waypoints it keeps, and its
+ * waypoints are read from the route itself when they are needed, so a copy costs an int per waypoint.
+ * 
+ * The algorithm is run once for all tolerances. Each waypoint is given the largest tolerance that
+ * would still keep it, and each copy is the waypoints whose tolerance exceeds the copy's.
+ */
+public class RouteSimplification
+{
+	/**
+	 * The tolerances in metres used when a route is simplified without being given any.
+	 */
+	public static final double[] DEFAULT_TOLERANCES = {10d, 50d, 250d};
+	
+	private static final int ROUTES_PER_TASK = 4;
+	private static final double METRES_PER_DEGREE = Math.toRadians(1d) * GeoUtils.EARTH_RADIUS;
+	
+	private final Route route;
+	// In ascending order, along with the indices of the waypoints kept at each, in ascending order
+	private final double[] tolerances;
+	private final int[][] levels;
+	
+	/**
+	 * Simplifies a route at each of the given tolerances.
+	 * @param route
+	 * @param tolerances in metres
+	 */
+	public RouteSimplification(Route route, double[] tolerances)
+	{
+		this.route = route;
+		this.tolerances = tolerances.clone();
+		Arrays.sort(this.tolerances);
+		
+		int count = route.getNumWaypoints();
+		double[] latitudes = new double[count];
+		double[] longitudes = new double[count];
+		WaypointCursor cursor = route.waypointCursor();
+		while(cursor.next())
+		{
+			latitudes[cursor.getIndex()] = cursor.getLatitude();
+			longitudes[cursor.getIndex()] = cursor.getLongitude();
+		}
+		double[] keepTolerances = getKeepTolerances(latitudes, longitudes, count);
+		
+		levels = new int[this.tolerances.length][];
+		int[] kept = new int[count];
+		for(int level = 0; level < levels.length; level++)
+		{
+			int keptCount = 0;
+			for(int ii = 0; ii < count; ii++)
+			{
+				if(keepTolerances[ii] > this.tolerances[level])
+				{
+					kept[keptCount++] = ii;
+				}
+			}
+			levels[level] = Arrays.copyOf(kept, keptCount);
+		}
+	}
+	
+	/**
+	 * Returns the tolerances the route was simplified at, in ascending order.
+	 * @return
+	 */
+	public double[] getTolerances()
+	{
+		return tolerances.clone();
+	}
+	
+	/**
+	 * Returns the waypoints of the simplest copy of the route made at a tolerance no greater than
+	 * the given one, or null if every copy was made at a greater tolerance.
+	 * @param tolerance in metres
+	 * @return
+	 */
+	public ArrayList<Waypoint> getWaypoints(double tolerance)
+	{
+		int[] kept = null;
+		for(int level = tolerances.length - 1; level >= 0 && kept == null; level--)
+		{
+			if(tolerances[level] <= tolerance)
+			{
+				kept = levels[level];
+			}
+		}
+		if(kept == null)
+		{
+			return null;
+		}
+		
+		// The kept waypoints are in ascending order, so they are all found in a single pass
+		ArrayList<Waypoint> result = new ArrayList<Waypoint>(kept.length);
+		WaypointCursor cursor = route.waypointCursor();
+		int next = 0;
+		while(next < kept.length && cursor.next())
+		{
+			if(cursor.getIndex() == kept[next])
+			{
+				GeoPosition position = new GeoPosition(cursor.getLatitude(), cursor.getLongitude(), cursor.getAltitude());
+				result.add(new Waypoint(cursor.getDescription(), position));
+				next++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Simplifies every route of a catalog at the given tolerances, using the given number of threads.
+	 * @param routes
+	 * @param tolerances in metres
+	 * @param parallelism
+	 */
+	public static void simplifyAll(List<CompositeRoute> routes, double[] tolerances, int parallelism)
+	{
+		SimplifyTask task = new SimplifyTask(routes, tolerances, 0, routes.size());
+		if(parallelism <= 1)
+		{
+			task.simplify();
+			return;
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try
+		{
+			pool.invoke(task);
+		}finally
+		{
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Returns, for each waypoint, the largest tolerance at which the Douglas-Peucker algorithm keeps it.
+	 * The ends are always kept. A waypoint is never given a larger tolerance than the waypoint that split
+	 * off its part of the route, as at any larger tolerance that part would not have been split at all.
+	 */
+	static double[] getKeepTolerances(double[] latitudes, double[] longitudes, int count)
+	{
+		double[] keepTolerances = new double[count];
+		if(count == 0)
+		{
+			return keepTolerances;
+		}
+		keepTolerances[0] = Double.POSITIVE_INFINITY;
+		keepTolerances[count - 1] = Double.POSITIVE_INFINITY;
+		
+		// The parts of the route still to be split, as their first and last waypoints
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		int pending = 0;
+		starts[pending] = 0;
+		ends[pending] = count - 1;
+		pending++;
+		while(pending > 0)
+		{
+			pending--;
+			int start = starts[pending], end = ends[pending];
+			if(end - start < 2)
+			{
+				continue;
+			}
+			
+			// Find the waypoint furthest from the line between the ends of this part
+			double metresPerLongitude = METRES_PER_DEGREE * Math.cos(Math.toRadians(latitudes[start]));
+			double deltaX = longitudeDelta(longitudes[start], longitudes[end]) * metresPerLongitude;
+			double deltaY = (latitudes[end] - latitudes[start]) * METRES_PER_DEGREE;
+			double lengthSquared = deltaX * deltaX + deltaY * deltaY;
+			int furthest = start + 1;
+			double furthestDistance = -1d;
+			for(int ii = start + 1; ii < end; ii++)
+			{
+				double x = longitudeDelta(longitudes[start], longitudes[ii]) * metresPerLongitude;
+				double y = (latitudes[ii] - latitudes[start]) * METRES_PER_DEGREE;
+				if(lengthSquared > 0d)
+				{
+					double fraction = Math.max(0d, Math.min(1d, (x * deltaX + y * deltaY) / lengthSquared));
+					x -= fraction * deltaX;
+					y -= fraction * deltaY;
+				}
+				double distance = x * x + y * y;
+				if(distance > furthestDistance)
+				{
+					furthest = ii;
+					furthestDistance = distance;
+				}
+			}
+			
+			keepTolerances[furthest] = Math.min(Math.sqrt(furthestDistance), Math.min(keepTolerances[start], keepTolerances[end]));
+			starts[pending] = start;
+			ends[pending] = furthest;
+			pending++;
+			starts[pending] = furthest;
+			ends[pending] = end;
+			pending++;
+		}
+		return keepTolerances;
+	}
+	
+	/**
+	 * Returns the change in longitude from one longitude to another, the short way around.
+	 */
+	private static double longitudeDelta(double from, double to)
+	{
+		double delta = to - from;
+		if(delta > 180d)
+		{
+			delta -= 360d;
+		}else if(delta < -180d)
+		{
+			delta += 360d;
+		}
+		return delta;
+	}
+	
+	private static class SimplifyTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final List<CompositeRoute> routes;
+		private final double[] tolerances;
+		private final int start, end;
+		
+		public SimplifyTask(List<CompositeRoute> routes, double[] tolerances, int start, int end)
+		{
+			this.routes = routes;
+			this.tolerances = tolerances;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if(end - start <= ROUTES_PER_TASK)
+			{
+				simplify();
+			}else
+			{
+				int middle = (start + end) >>> 1;
+				invokeAll(new SimplifyTask(routes, tolerances, start, middle), new SimplifyTask(routes, tolerances, middle, end));
+			}
+		}
+		
+		/**
+		 * Simplifies the whole range on the current thread.
+		 */
+		void simplify()
+		{
+			for(int ii = start; ii < end; ii++)
+			{
+				routes.get(ii).simplify(tolerances);
+			}
+		}
+	}
+}
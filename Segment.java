@@ -4,8 +4,9 @@ import java.util.ArrayList;
 
 public class Segment implements Route
 {
-	private Waypoint start, end;
-	private boolean hasNext = true;
+	private final Waypoint start, end;
+	// The length of the segment, NaN until it is first needed
+	private volatile double distance = Double.NaN;
 	
 	public Segment(Waypoint start, Waypoint end)
 	{
@@ -34,19 +35,98 @@ public class Segment implements Route
 	}
 
 	@Override
-	public boolean hasNext() {
-		return hasNext;
-	}
+	public RouteCursor cursor()
+	{
+		return new RouteCursor()
+		{
+			private boolean hasNext = true;
 
-	@Override
-	public Segment next() {
-		hasNext = false;
-		return this;
-	}
+			@Override
+			public boolean hasNext()
+			{
+				return hasNext;
+			}
 
+			@Override
+			public Segment next()
+			{
+				if(!hasNext)
+				{
+					return null;
+				}
+				hasNext = false;
+				return Segment.this;
+			}
+			
+			@Override
+			public void reset()
+			{
+				hasNext = true;
+			}
+		};
+	}
+	
 	@Override
-	public void resetIterator() {
-		hasNext = true;
+	public WaypointCursor waypointCursor()
+	{
+		return new WaypointCursor()
+		{
+			// 0 for the start of the segment, 1 for its end
+			private int index = -1;
+			
+			@Override
+			public boolean next()
+			{
+				if(index >= 1)
+				{
+					index = 2;
+					return false;
+				}
+				index++;
+				return true;
+			}
+			
+			@Override
+			public void reset()
+			{
+				index = -1;
+			}
+			
+			@Override
+			public int getIndex()
+			{
+				return index;
+			}
+			
+			@Override
+			public double getLatitude()
+			{
+				return getWaypoint().getLatitude();
+			}
+			
+			@Override
+			public double getLongitude()
+			{
+				return getWaypoint().getLongitude();
+			}
+			
+			@Override
+			public double getAltitude()
+			{
+				return getWaypoint().getAltitude();
+			}
+			
+			@Override
+			public String getDescription()
+			{
+				return getWaypoint().getDescription();
+			}
+			
+			private Waypoint getWaypoint()
+			{
+				return index == 0 ? start : end;
+			}
+		};
 	}
 	
 	@Override
@@ -66,7 +146,11 @@ public class Segment implements Route
 
 	@Override
 	public double getHorizontalDistance() {
-		return GeoUtils.calcMetresDistance(start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude());
+		if(Double.isNaN(distance))
+		{
+			distance = GeoUtils.getMeasurementEngine().distance(start.getPosition(), end.getPosition());
+		}
+		return distance;
 	}
 
 	@Override
@@ -0,0 +1,144 @@
+package geoapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded queue of locations and route changes for the sessions of one worker, written by any
+ * number of threads and read by the worker alone. Entries are stored in columns of slots that are
+ * reused, so queueing a location does not allocate.
+ * 
+ * Each slot has a sequence: a writer may claim slot i for entry n when its sequence is n, and the
+ * reader may take it once the writer sets it to n + 1. The reader then sets it to n + capacity.
+ */
+class SessionQueue
+{
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final NavigationSession[] sessions;
+	private final boolean[] routeChanges;
+	private final CompositeRoute[] routes;
+	private final double[] latitudes, longitudes, altitudes;
+	
+	// The next entry to be claimed by a writer
+	private final AtomicLong tail = new AtomicLong();
+	// The next entry to be read, only written by the reader
+	private volatile long head = 0L;
+	// The number of entries whose session threw an exception, only written by the reader
+	private volatile long failures = 0L;
+	
+	/**
+	 * @param capacity a power of two
+	 */
+	SessionQueue(int capacity)
+	{
+		mask = capacity - 1;
+		sequences = new AtomicLongArray(capacity);
+		for(int ii = 0; ii < capacity; ii++)
+		{
+			sequences.set(ii, ii);
+		}
+		sessions = new NavigationSession[capacity];
+		routeChanges = new boolean[capacity];
+		routes = new CompositeRoute[capacity];
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		altitudes = new double[capacity];
+	}
+	
+	/**
+	 * Adds an entry, returning false if the queue is full.
+	 */
+	boolean offer(NavigationSession session, boolean routeChange, CompositeRoute route, double latitude, double longitude, double altitude)
+	{
+		long position = tail.get();
+		int slot;
+		while(true)
+		{
+			slot = (int)position & mask;
+			long difference = sequences.getAcquire(slot) - position;
+			if(difference == 0L)
+			{
+				if(tail.compareAndSet(position, position + 1L))
+				{
+					break;
+				}
+				position = tail.get();
+			}else if(difference < 0L)
+			{
+				// The reader has not taken the entry a whole queue before this one yet
+				return false;
+			}else
+			{
+				// Another writer claimed the slot first
+				position = tail.get();
+			}
+		}
+		
+		sessions[slot] = session;
+		routeChanges[slot] = routeChange;
+		routes[slot] = route;
+		latitudes[slot] = latitude;
+		longitudes[slot] = longitude;
+		altitudes[slot] = altitude;
+		sequences.setRelease(slot, position + 1L);
+		return true;
+	}
+	
+	/**
+	 * Returns the number of entries waiting, which is approximate while entries are being added or read.
+	 */
+	long size()
+	{
+		return Math.max(0L, tail.get() - head);
+	}
+	
+	long getFailures()
+	{
+		return failures;
+	}
+	
+	boolean isEmpty()
+	{
+		long next = head;
+		return sequences.getAcquire((int)next & mask) != next + 1L;
+	}
+	
+	/**
+	 * Applies the entries in the queue to their sessions, up to the given number, in the order they were added.
+	 * Returns the number applied.
+	 */
+	int drain(int limit)
+	{
+		int count = 0;
+		long next = head;
+		while(count < limit)
+		{
+			int slot = (int)next & mask;
+			if(sequences.getAcquire(slot) != next + 1L)
+			{
+				break;
+			}
+			NavigationSession session = sessions[slot];
+			boolean routeChange = routeChanges[slot];
+			CompositeRoute route = routes[slot];
+			double latitude = latitudes[slot], longitude = longitudes[slot], altitude = altitudes[slot];
+			sessions[slot] = null;
+			routes[slot] = null;
+			// Hand the slot back to the writers before the entry is applied, which may take a while
+			sequences.setRelease(slot, next + mask + 1L);
+			head = ++next;
+			count++;
+			
+			try
+			{
+				session.process(routeChange, route, latitude, longitude, altitude);
+			}catch(RuntimeException e)
+			{
+				// A failing listener must not stop the other sessions of the worker
+				failures++;
+			}
+		}
+		return count;
+	}
+}
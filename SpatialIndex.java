@@ -0,0 +1,452 @@
+package geoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the waypoints of a set of routes by location. Waypoints are bucketed into a grid of cells
+ * a fixed number of degrees across, and stored in columns sorted by cell, so each row of cells a query
+ * covers is one contiguous range found by binary search. Each waypoint is kept as a unit vector as
+ * well, so checking whether it is within a radius costs a dot product rather than any trigonometry.
+ * 
+ * Distances are measured on a sphere, as GeoUtils.calcMetresDistance does. The index holds no
+ * Waypoint objects, and does not change once built; rebuild it when the routes change.
+ */
+public class SpatialIndex
+{
+	/**
+	 * A waypoint found by a query, along with the route it belongs to.
+	 */
+	public static class Hit
+	{
+		private final CompositeRoute route;
+		private final int routeIndex, waypointIndex;
+		private final double latitude, longitude, distance;
+		
+		Hit(CompositeRoute route, int routeIndex, int waypointIndex, double latitude, double longitude, double distance)
+		{
+			this.route = route;
+			this.routeIndex = routeIndex;
+			this.waypointIndex = waypointIndex;
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.distance = distance;
+		}
+		
+		public CompositeRoute getRoute()
+		{
+			return route;
+		}
+		
+		/**
+		 * Returns the index of the waypoint within the route's getWaypoints() (or its waypointCursor()).
+		 * @return
+		 */
+		public int getWaypointIndex()
+		{
+			return waypointIndex;
+		}
+		
+		public double getLatitude()
+		{
+			return latitude;
+		}
+		
+		public double getLongitude()
+		{
+			return longitude;
+		}
+		
+		/**
+		 * Returns the distance in metres from the centre of the query, or NaN for a box query.
+		 * @return
+		 */
+		public double getDistance()
+		{
+			return distance;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return route + " waypoint " + waypointIndex;
+		}
+	}
+	
+	// The width of a cell in degrees, if none is given
+	public static final double DEFAULT_CELL_SIZE = 0.01d;
+	// Below this, cell keys no longer fit alongside a waypoint index in a long
+	private static final double MIN_CELL_SIZE = 0.01d;
+	
+	private static final Comparator<Hit> BY_DISTANCE = new Comparator<Hit>()
+	{
+		@Override
+		public int compare(Hit a, Hit b)
+		{
+			return Double.compare(a.distance, b.distance);
+		}
+	};
+	
+	private final ArrayList<CompositeRoute> routes;
+	private final double cellSize;
+	private final int rows, columns;
+	
+	// The key of every cell holding a waypoint in ascending order, and the index of its first waypoint
+	private final long[] cellKeys;
+	private final int[] cellStarts;
+	
+	// The waypoints, sorted by cell
+	private final int count;
+	private final double[] latitudes, longitudes;
+	private final double[] xs, ys, zs;
+	private final int[] routeIndices, waypointIndices;
+	
+	public SpatialIndex(List<CompositeRoute> routes)
+	{
+		this(routes, DEFAULT_CELL_SIZE);
+	}
+	
+	/**
+	 * Indexes every waypoint of the given routes. A waypoint shared by several routes
+	 * (through a pointer) is indexed once for each of them.
+	 * @param routes
+	 * @param cellSize the width of a cell in degrees, at least 0.01
+	 * @throws IllegalArgumentException if the cell size is out of range
+	 */
+	public SpatialIndex(List<CompositeRoute> routes, double cellSize) throws IllegalArgumentException
+	{
+		if(!(cellSize >= MIN_CELL_SIZE && cellSize <= 180d))
+		{
+			throw new IllegalArgumentException("cell size must be between " + MIN_CELL_SIZE + " and 180 degrees");
+		}
+		this.routes = new ArrayList<CompositeRoute>(routes);
+		this.cellSize = cellSize;
+		rows = (int)Math.ceil(180d / cellSize);
+		columns = (int)Math.ceil(360d / cellSize);
+		
+		int capacity = 0;
+		for(CompositeRoute route : this.routes)
+		{
+			capacity += route.getNumWaypoints();
+		}
+		double[] unsortedLatitudes = new double[capacity];
+		double[] unsortedLongitudes = new double[capacity];
+		int[] unsortedRoutes = new int[capacity];
+		int[] unsortedWaypoints = new int[capacity];
+		// The cell key of each waypoint in the upper half, and its unsorted index in the lower half
+		long[] order = new long[capacity];
+		int added = 0;
+		for(int route = 0; route < this.routes.size(); route++)
+		{
+			// Read the coordinates straight from the route's columns, without creating waypoints
+			WaypointCursor point = this.routes.get(route).waypointCursor();
+			while(point.next())
+			{
+				if(added == order.length)
+				{
+					int newCapacity = Math.max(16, added * 2);
+					unsortedLatitudes = Arrays.copyOf(unsortedLatitudes, newCapacity);
+					unsortedLongitudes = Arrays.copyOf(unsortedLongitudes, newCapacity);
+					unsortedRoutes = Arrays.copyOf(unsortedRoutes, newCapacity);
+					unsortedWaypoints = Arrays.copyOf(unsortedWaypoints, newCapacity);
+					order = Arrays.copyOf(order, newCapacity);
+				}
+				unsortedLatitudes[added] = point.getLatitude();
+				unsortedLongitudes[added] = point.getLongitude();
+				unsortedRoutes[added] = route;
+				unsortedWaypoints[added] = point.getIndex();
+				order[added] = cellKey(getRow(point.getLatitude()), getColumn(point.getLongitude())) << 32 | added;
+				added++;
+			}
+		}
+		count = added;
+		Arrays.parallelSort(order, 0, count);
+		
+		latitudes = new double[count];
+		longitudes = new double[count];
+		xs = new double[count];
+		ys = new double[count];
+		zs = new double[count];
+		routeIndices = new int[count];
+		waypointIndices = new int[count];
+		int cells = 0;
+		for(int ii = 0; ii < count; ii++)
+		{
+			int source = (int)order[ii];
+			latitudes[ii] = unsortedLatitudes[source];
+			longitudes[ii] = unsortedLongitudes[source];
+			routeIndices[ii] = unsortedRoutes[source];
+			waypointIndices[ii] = unsortedWaypoints[source];
+			double latitude = Math.toRadians(latitudes[ii]);
+			double longitude = Math.toRadians(longitudes[ii]);
+			xs[ii] = Math.cos(latitude) * Math.cos(longitude);
+			ys[ii] = Math.cos(latitude) * Math.sin(longitude);
+			zs[ii] = Math.sin(latitude);
+			if(ii == 0 || order[ii] >>> 32 != order[ii - 1] >>> 32)
+			{
+				cells++;
+			}
+		}
+		
+		cellKeys = new long[cells];
+		cellStarts = new int[cells + 1];
+		int cell = 0;
+		for(int ii = 0; ii < count; ii++)
+		{
+			if(ii == 0 || order[ii] >>> 32 != order[ii - 1] >>> 32)
+			{
+				cellKeys[cell] = order[ii] >>> 32;
+				cellStarts[cell] = ii;
+				cell++;
+			}
+		}
+		cellStarts[cells] = count;
+	}
+	
+	/**
+	 * Returns the number of waypoints indexed.
+	 * @return
+	 */
+	public int size()
+	{
+		return count;
+	}
+	
+	/**
+	 * Returns every waypoint within the given distance of a position, nearest first.
+	 * @param centre
+	 * @param metres
+	 * @return
+	 */
+	public ArrayList<Hit> withinRadius(GeoPosition centre, double metres)
+	{
+		ArrayList<Hit> hits = new ArrayList<Hit>();
+		double angle = metres / GeoUtils.EARTH_RADIUS;
+		if(angle < 0d)
+		{
+			return hits;
+		}
+		// Close to 1 the cosine cannot resolve small radii, so candidates near the edge are measured exactly
+		double minDot = Math.cos(Math.min(angle, Math.PI)) - 1e-12;
+		double x = centre.cosLatitude * centre.cosLongitude;
+		double y = centre.cosLatitude * centre.sinLongitude;
+		double z = centre.sinLatitude;
+		
+		// The rows and longitudes the circle covers, or every longitude if it reaches a pole
+		double latitudeDelta = Math.toDegrees(angle);
+		double longitudeDelta = 180d;
+		if(centre.latitude + latitudeDelta < 90d && centre.latitude - latitudeDelta > -90d)
+		{
+			double sine = Math.sin(angle) / centre.cosLatitude;
+			if(sine < 1d)
+			{
+				longitudeDelta = Math.toDegrees(Math.asin(sine));
+			}
+		}
+		int[] ranges = getRanges(centre.latitude - latitudeDelta, centre.latitude + latitudeDelta,
+				centre.longitude - longitudeDelta, centre.longitude + longitudeDelta);
+		
+		for(int range = 0; range < ranges.length && ranges[range] >= 0; range += 2)
+		{
+			for(int ii = ranges[range]; ii < ranges[range + 1]; ii++)
+			{
+				double dot = x * xs[ii] + y * ys[ii] + z * zs[ii];
+				if(dot >= minDot)
+				{
+					double crossX = y * zs[ii] - z * ys[ii];
+					double crossY = z * xs[ii] - x * zs[ii];
+					double crossZ = x * ys[ii] - y * xs[ii];
+					double cross = Math.sqrt(crossX * crossX + crossY * crossY + crossZ * crossZ);
+					double distance = Math.atan2(cross, dot) * GeoUtils.EARTH_RADIUS;
+					if(distance <= metres)
+					{
+						hits.add(newHit(ii, distance));
+					}
+				}
+			}
+		}
+		Collections.sort(hits, BY_DISTANCE);
+		return hits;
+	}
+	
+	/**
+	 * Returns the nearest waypoint of each route with a waypoint within the given distance of a position,
+	 * nearest first.
+	 * @param centre
+	 * @param metres
+	 * @return
+	 */
+	public ArrayList<Hit> routesWithinRadius(GeoPosition centre, double metres)
+	{
+		ArrayList<Hit> hits = new ArrayList<Hit>();
+		boolean[] found = new boolean[routes.size()];
+		for(Hit hit : withinRadius(centre, metres))
+		{
+			if(!found[hit.routeIndex])
+			{
+				found[hit.routeIndex] = true;
+				hits.add(hit);
+			}
+		}
+		return hits;
+	}
+	
+	/**
+	 * Returns every waypoint within a box of latitudes and longitudes, in no particular order.
+	 * If minLongitude is greater than maxLongitude, the box crosses the antimeridian.
+	 * @param minLatitude
+	 * @param minLongitude
+	 * @param maxLatitude
+	 * @param maxLongitude
+	 * @return
+	 */
+	public ArrayList<Hit> withinBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude)
+	{
+		ArrayList<Hit> hits = new ArrayList<Hit>();
+		if(minLatitude > maxLatitude)
+		{
+			return hits;
+		}
+		boolean crossesAntimeridian = minLongitude > maxLongitude;
+		int[] ranges = getRanges(minLatitude, maxLatitude, minLongitude,
+				crossesAntimeridian ? maxLongitude + 360d : maxLongitude);
+		
+		for(int range = 0; range < ranges.length && ranges[range] >= 0; range += 2)
+		{
+			for(int ii = ranges[range]; ii < ranges[range + 1]; ii++)
+			{
+				double latitude = latitudes[ii], longitude = longitudes[ii];
+				boolean inLongitude = crossesAntimeridian
+						? longitude >= minLongitude || longitude <= maxLongitude
+						: longitude >= minLongitude && longitude <= maxLongitude;
+				if(inLongitude && latitude >= minLatitude && latitude <= maxLatitude)
+				{
+					hits.add(newHit(ii, Double.NaN));
+				}
+			}
+		}
+		return hits;
+	}
+	
+	/**
+	 * Returns the k waypoints nearest to a position, nearest first.
+	 * Fewer are returned if fewer than k waypoints are indexed.
+	 * @param centre
+	 * @param k
+	 * @return
+	 */
+	public ArrayList<Hit> nearest(GeoPosition centre, int k)
+	{
+		if(k <= 0 || count == 0)
+		{
+			return new ArrayList<Hit>();
+		}
+		
+		// Guess a radius holding k waypoints from how crowded the centre's cell is,
+		// then keep doubling it. Anything outside the radius is further than everything inside it.
+		int cell = Arrays.binarySearch(cellKeys, cellKey(getRow(centre.latitude), getColumn(centre.longitude)));
+		int crowd = cell < 0 ? 0 : cellStarts[cell + 1] - cellStarts[cell];
+		double cellMetres = Math.toRadians(cellSize) * GeoUtils.EARTH_RADIUS;
+		double radius = Math.max(1d, cellMetres * Math.sqrt((double)k / (crowd + 1)));
+		while(true)
+		{
+			ArrayList<Hit> hits = withinRadius(centre, radius);
+			if(hits.size() >= k || radius >= Math.PI * GeoUtils.EARTH_RADIUS)
+			{
+				return new ArrayList<Hit>(hits.subList(0, Math.min(k, hits.size())));
+			}
+			radius *= 2d;
+		}
+	}
+	
+	private Hit newHit(int index, double distance)
+	{
+		int route = routeIndices[index];
+		return new Hit(routes.get(route), route, waypointIndices[index], latitudes[index], longitudes[index], distance);
+	}
+	
+	/**
+	 * Returns the ranges of waypoints (as pairs of start and end indices) in the cells covering the
+	 * given latitudes and longitudes. The longitudes may run past the antimeridian on either side.
+	 * Unused entries at the end are -1.
+	 */
+	private int[] getRanges(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude)
+	{
+		int firstRow = getRow(Math.max(-90d, minLatitude));
+		int lastRow = getRow(Math.min(90d, maxLatitude));
+		
+		// Split the longitudes into at most two runs of columns
+		int[] columnRuns;
+		if(maxLongitude - minLongitude >= 360d)
+		{
+			columnRuns = new int[] {0, columns - 1};
+		}else if(minLongitude < -180d)
+		{
+			columnRuns = new int[] {getColumn(minLongitude + 360d), columns - 1, 0, getColumn(maxLongitude)};
+		}else if(maxLongitude > 180d)
+		{
+			columnRuns = new int[] {getColumn(minLongitude), columns - 1, 0, getColumn(maxLongitude - 360d)};
+		}else
+		{
+			columnRuns = new int[] {getColumn(minLongitude), getColumn(maxLongitude)};
+		}
+		
+		int[] ranges = new int[(lastRow - firstRow + 1) * columnRuns.length];
+		int used = 0;
+		for(int row = firstRow; row <= lastRow; row++)
+		{
+			for(int run = 0; run < columnRuns.length; run += 2)
+			{
+				// A run of columns within a row is a run of consecutive keys
+				int first = lowerBound(cellKey(row, columnRuns[run]));
+				int last = lowerBound(cellKey(row, columnRuns[run + 1]) + 1);
+				if(first < last)
+				{
+					ranges[used++] = cellStarts[first];
+					ranges[used++] = cellStarts[last];
+				}
+			}
+		}
+		Arrays.fill(ranges, used, ranges.length, -1);
+		return ranges;
+	}
+	
+	/**
+	 * Returns the index of the first cell with a key of at least the given key.
+	 */
+	private int lowerBound(long key)
+	{
+		int low = 0, high = cellKeys.length;
+		while(low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if(cellKeys[middle] < key)
+			{
+				low = middle + 1;
+			}else
+			{
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	private int getRow(double latitude)
+	{
+		return Math.min(rows - 1, Math.max(0, (int)((latitude + 90d) / cellSize)));
+	}
+	
+	private int getColumn(double longitude)
+	{
+		// 180 degrees is the same column as -180 degrees
+		return Math.max(0, (int)((longitude + 180d) / cellSize)) % columns;
+	}
+	
+	private long cellKey(int row, int column)
+	{
+		return (long)row * columns + column;
+	}
+}
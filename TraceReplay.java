@@ -0,0 +1,469 @@
+package geoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays recorded GPS traces through a NavigationService, one session per simulated device,
+ * and reports how the service kept up. Each trace starts when the replay starts, and its fixes
+ * are sent at their recorded times, scaled by the speed: 1 is real time, N is N times faster,
+ * and AS_FAST_AS_POSSIBLE sends every fix straight away, in timestamp order.
+ * 
+ * Devices are shared between a small pool of feeder threads, each sending the fixes of its devices
+ * in timestamp order and sleeping until the next one is due. This stands in for a virtual thread
+ * per device, which needs Java 21 while the build targets 17, and platform threads do not scale to
+ * thousands of devices. A pooled device's fix is only late when fixes of other devices on the same
+ * feeder fall due at about the same time. THREAD_PER_DEVICE gives each device a platform thread of
+ * its own, to compare the lag behind schedule with the pool's on a few hundred devices (see the
+ * benchmarks README).
+ */
+public class TraceReplay
+{
+	public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+	// Sends each device's fixes from a thread of its own
+	public static final int THREAD_PER_DEVICE = 0;
+	
+	private final ArrayList<Device> devices = new ArrayList<Device>();
+	private final int workers;
+	private double speed = 1d;
+	private int feederThreads = 1;
+	
+	/**
+	 * Creates a replay run on a new NavigationService with the given number of workers.
+	 * @param workers
+	 */
+	public TraceReplay(int workers)
+	{
+		if(workers < 1)
+		{
+			throw new IllegalArgumentException("workers must be at least 1");
+		}
+		this.workers = workers;
+	}
+	
+	/**
+	 * Adds a simulated device, navigating the given route while its trace is replayed.
+	 * @param deviceId
+	 * @param route
+	 * @param trace
+	 * @throws IllegalArgumentException if the route or trace is null
+	 */
+	public void addDevice(String deviceId, CompositeRoute route, GpsTrace trace) throws IllegalArgumentException
+	{
+		if(route == null || trace == null)
+		{
+			throw new IllegalArgumentException("a device needs a route and a trace");
+		}
+		devices.add(new Device(deviceId, route, trace));
+	}
+	
+	/**
+	 * Sets how many times faster than recorded the traces are replayed.
+	 * @param speed greater than 0, or AS_FAST_AS_POSSIBLE
+	 * @throws IllegalArgumentException
+	 */
+	public void setSpeed(double speed) throws IllegalArgumentException
+	{
+		if(!(speed > 0d))
+		{
+			throw new IllegalArgumentException("speed must be greater than 0");
+		}
+		this.speed = speed;
+	}
+	
+	/**
+	 * Sets the number of threads sending fixes to the service.
+	 * @param threads at least 1, or THREAD_PER_DEVICE
+	 * @throws IllegalArgumentException
+	 */
+	public void setFeederThreads(int threads) throws IllegalArgumentException
+	{
+		if(threads < 1 && threads != THREAD_PER_DEVICE)
+		{
+			throw new IllegalArgumentException("threads must be at least 1, or THREAD_PER_DEVICE");
+		}
+		feederThreads = threads;
+	}
+	
+	/**
+	 * Replays every trace, waiting until the service has handled the last fix. A replay can be run again.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public Report run() throws InterruptedException
+	{
+		NavigationService service = new NavigationService(workers, NavigationService.DEFAULT_QUEUE_CAPACITY);
+		for(Device device : devices)
+		{
+			device.reset();
+			device.session = service.openSession(device.deviceId, device.route, device);
+		}
+		
+		final long start = System.nanoTime();
+		int threads = feederThreads == THREAD_PER_DEVICE ? Math.max(1, devices.size()) : feederThreads;
+		ExecutorService feeders = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<Long>> lags = new ArrayList<Future<Long>>();
+		for(int ii = 0; ii < threads; ii++)
+		{
+			final ArrayList<Device> share = new ArrayList<Device>();
+			for(int device = ii; device < devices.size(); device += threads)
+			{
+				share.add(devices.get(device));
+			}
+			final NavigationService target = service;
+			lags.add(feeders.submit(new Callable<Long>()
+			{
+				@Override
+				public Long call()
+				{
+					return feed(target, share, start);
+				}
+			}));
+		}
+		
+		long maxLag = 0L;
+		try
+		{
+			for(Future<Long> lag : lags)
+			{
+				maxLag = Math.max(maxLag, lag.get());
+			}
+		}catch(ExecutionException e)
+		{
+			throw new IllegalStateException("replay failed", e.getCause());
+		}finally
+		{
+			feeders.shutdownNow();
+			// Waits for every queued fix to be handled
+			service.shutdown();
+		}
+		long wallNanos = System.nanoTime() - start;
+		return new Report(devices, wallNanos, maxLag, service.getStalls());
+	}
+	
+	/**
+	 * Sends the fixes of some devices in timestamp order, waiting for each to be due.
+	 * Returns the longest time a fix was sent after it was due, in nanoseconds.
+	 */
+	private long feed(NavigationService service, ArrayList<Device> share, long start)
+	{
+		PriorityQueue<Device> due = new PriorityQueue<Device>(Math.max(1, share.size()), new Comparator<Device>()
+		{
+			@Override
+			public int compare(Device a, Device b)
+			{
+				return Long.compare(a.nextOffset, b.nextOffset);
+			}
+		});
+		for(Device device : share)
+		{
+			if(device.trace.size() > 0)
+			{
+				device.nextOffset = 0L;
+				due.add(device);
+			}
+		}
+		
+		long maxLag = 0L;
+		boolean paced = speed != AS_FAST_AS_POSSIBLE;
+		while(!due.isEmpty())
+		{
+			Device device = due.poll();
+			int fix = device.nextFix;
+			GpsTrace trace = device.trace;
+			if(paced)
+			{
+				long dueAt = start + (long)(device.nextOffset * 1e6 / speed);
+				long wait;
+				while((wait = dueAt - System.nanoTime()) > 0L)
+				{
+					LockSupport.parkNanos(wait);
+				}
+				maxLag = Math.max(maxLag, -wait);
+				device.lags[fix] = -wait;
+			}
+			
+			device.submitted[fix] = System.nanoTime();
+			service.locationReceived(device.session, trace.getLatitude(fix), trace.getLongitude(fix), trace.getAltitude(fix));
+			if(++device.nextFix < trace.size())
+			{
+				device.nextOffset = trace.getTimestamp(device.nextFix) - trace.getTimestamp(0);
+				due.add(device);
+			}
+		}
+		return maxLag;
+	}
+	
+	/**
+	 * A simulated device, which is also the listener of its session. The listener fields are
+	 * only used on the session's worker, and read once the service has shut down.
+	 */
+	private static class Device implements NavigationListener
+	{
+		final String deviceId;
+		final CompositeRoute route;
+		final GpsTrace trace;
+		// When each fix was sent, from System.nanoTime
+		final long[] submitted;
+		// How long after it was due each fix was sent, or 0 when not paced
+		final long[] lags;
+		NavigationSession session;
+		
+		// Used by the feeder
+		int nextFix;
+		long nextOffset;
+		
+		// Used by the session's worker
+		int handled;
+		Waypoint target;
+		long[] latencies = new long[16];
+		int reached;
+		double arrivalTotal, arrivalMax;
+		
+		Device(String deviceId, CompositeRoute route, GpsTrace trace)
+		{
+			this.deviceId = deviceId;
+			this.route = route;
+			this.trace = trace;
+			submitted = new long[trace.size()];
+			lags = new long[trace.size()];
+		}
+		
+		void reset()
+		{
+			Arrays.fill(lags, 0L);
+			nextFix = 0;
+			handled = 0;
+			target = null;
+			reached = 0;
+			arrivalTotal = 0d;
+			arrivalMax = 0d;
+		}
+		
+		@Override
+		public void positionUpdated(NavigationSession session)
+		{
+			handled++;
+			// The waypoint being headed for before this fix, which it may reach
+			target = session.getNavigator().getNextWaypoint();
+		}
+		
+		@Override
+		public void targetWaypointUpdated(NavigationSession session, Waypoint newTarget)
+		{
+			long latency = System.nanoTime() - submitted[handled - 1];
+			if(reached == latencies.length)
+			{
+				latencies = Arrays.copyOf(latencies, reached * 2);
+			}
+			latencies[reached++] = latency;
+			
+			double arrival = GeoUtils.getProximityEngine().distance(session.getNavigator().getCurrentPosition(), target.getPosition());
+			arrivalTotal += arrival;
+			arrivalMax = Math.max(arrivalMax, arrival);
+		}
+		
+		@Override
+		public void offRoute(NavigationSession session, RouteMatch match)
+		{
+		}
+		
+		@Override
+		public void rejoinedRoute(NavigationSession session, RouteMatch match)
+		{
+		}
+	}
+	
+	/**
+	 * The results of a replay.
+	 */
+	public static class Report
+	{
+		private final int deviceCount;
+		private final long fixCount;
+		private final long wallNanos;
+		private final long maxLagNanos;
+		private final long stalls;
+		private final int waypointsReached, waypointsExpected;
+		// The time from each fix reaching a waypoint being sent to the waypoint event, sorted
+		private final long[] latencies;
+		// How long after it was due each fix was sent, sorted
+		private final long[] lags;
+		private final double meanArrivalDistance, maxArrivalDistance;
+		
+		Report(ArrayList<Device> devices, long wallNanos, long maxLagNanos, long stalls)
+		{
+			this.deviceCount = devices.size();
+			this.wallNanos = wallNanos;
+			this.maxLagNanos = maxLagNanos;
+			this.stalls = stalls;
+			
+			long fixes = 0L;
+			int reached = 0, expected = 0;
+			double arrivalTotal = 0d, arrivalMax = 0d;
+			for(Device device : devices)
+			{
+				fixes += device.handled;
+				reached += device.reached;
+				expected += device.route.getProfile().getSegmentCount();
+				arrivalTotal += device.arrivalTotal;
+				arrivalMax = Math.max(arrivalMax, device.arrivalMax);
+			}
+			long[] all = new long[reached];
+			int count = 0;
+			for(Device device : devices)
+			{
+				System.arraycopy(device.latencies, 0, all, count, device.reached);
+				count += device.reached;
+			}
+			Arrays.sort(all);
+			long[] sent = new long[(int)fixes];
+			count = 0;
+			for(Device device : devices)
+			{
+				System.arraycopy(device.lags, 0, sent, count, device.handled);
+				count += device.handled;
+			}
+			Arrays.sort(sent);
+			
+			this.fixCount = fixes;
+			this.waypointsReached = reached;
+			this.waypointsExpected = expected;
+			this.latencies = all;
+			this.lags = sent;
+			this.meanArrivalDistance = reached == 0 ? 0d : arrivalTotal / reached;
+			this.maxArrivalDistance = arrivalMax;
+		}
+		
+		public int getDeviceCount()
+		{
+			return deviceCount;
+		}
+		
+		/**
+		 * Returns the number of fixes handled by the service.
+		 * @return
+		 */
+		public long getFixCount()
+		{
+			return fixCount;
+		}
+		
+		public long getWallNanos()
+		{
+			return wallNanos;
+		}
+		
+		public double getFixesPerSecond()
+		{
+			return fixCount / (wallNanos / 1e9);
+		}
+		
+		/**
+		 * Returns the latest any fix was sent after it was due, in nanoseconds. Always 0 when replaying
+		 * as fast as possible.
+		 * @return
+		 */
+		public long getMaxLagNanos()
+		{
+			return maxLagNanos;
+		}
+		
+		/**
+		 * Returns the given percentile of how long after it was due each fix was sent, in nanoseconds.
+		 * Always 0 when replaying as fast as possible.
+		 * @param percentile from 0 to 100
+		 * @return
+		 */
+		public long getLagPercentile(double percentile)
+		{
+			return percentile(lags, percentile);
+		}
+		
+		/**
+		 * Returns the number of times a feeder waited for room in a worker's queue.
+		 * @return
+		 */
+		public long getStalls()
+		{
+			return stalls;
+		}
+		
+		public int getWaypointsReached()
+		{
+			return waypointsReached;
+		}
+		
+		/**
+		 * Returns the number of waypoints that would be reached if every device finished its route.
+		 * @return
+		 */
+		public int getWaypointsExpected()
+		{
+			return waypointsExpected;
+		}
+		
+		/**
+		 * Returns the given percentile of the time from sending a fix that reaches a waypoint
+		 * to the waypoint event, in nanoseconds, or 0 if no waypoint was reached.
+		 * @param percentile from 0 to 100
+		 * @return
+		 */
+		public long getLatencyPercentile(double percentile)
+		{
+			return percentile(latencies, percentile);
+		}
+		
+		private static long percentile(long[] sorted, double percentile)
+		{
+			if(sorted.length == 0)
+			{
+				return 0L;
+			}
+			int index = (int)Math.ceil(percentile / 100d * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+		}
+		
+		/**
+		 * Returns the mean distance from the fix that reached each waypoint to the waypoint, in metres.
+		 * @return
+		 */
+		public double getMeanArrivalDistance()
+		{
+			return meanArrivalDistance;
+		}
+		
+		public double getMaxArrivalDistance()
+		{
+			return maxArrivalDistance;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.ROOT,
+					"Devices: %d%n" +
+					"Fixes: %d in %.1f ms (%.0f fixes/s)%n" +
+					"Lag behind schedule: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n" +
+					"Queue stalls: %d%n" +
+					"Waypoints reached: %d of %d%n" +
+					"Fix to waypoint event latency: p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us%n" +
+					"Arrival distance: mean %.2f m, max %.2f m",
+					deviceCount, fixCount, wallNanos / 1e6, getFixesPerSecond(),
+					getLagPercentile(50) / 1e6, getLagPercentile(99) / 1e6, maxLagNanos / 1e6, stalls,
+					waypointsReached, waypointsExpected,
+					getLatencyPercentile(50) / 1e3, getLatencyPercentile(90) / 1e3,
+					getLatencyPercentile(99) / 1e3, getLatencyPercentile(100) / 1e3,
+					meanArrivalDistance, maxArrivalDistance);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package geoapp;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The vectorised paths of GeoUtils.calcMetresDistances, using the incubating Vector API.
+ * This class must only be loaded when the jdk.incubator.vector module is present
+ * (see GeoUtils.isVectorDistances()). Each lane follows the same formula as
+ * GeoUtils.calcMetresDistance, so results only differ from it by rounding.
+ */
+final class VectorDistanceKernel
+{
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	private static final double DEGREES_TO_RADIANS = Math.PI / 180d;
+	
+	private VectorDistanceKernel()
+	{
+	}
+	
+	/**
+	 * Fills distances[i] with the distance from point i to point i + 1, for the first count points.
+	 */
+	static void consecutive(double[] latitudes, double[] longitudes, int count, double[] distances)
+	{
+		int pairs = count - 1;
+		int ii = 0;
+		for(; ii < SPECIES.loopBound(pairs); ii += SPECIES.length())
+		{
+			DoubleVector[] from = unitVector(latitudes, longitudes, ii);
+			DoubleVector[] to = unitVector(latitudes, longitudes, ii + 1);
+			distance(from, to).intoArray(distances, ii);
+		}
+		
+		// The remaining pairs do not fill a vector
+		for(; ii < pairs; ii++)
+		{
+			distances[ii] = GeoUtils.calcMetresDistance(latitudes[ii], longitudes[ii], latitudes[ii + 1], longitudes[ii + 1]);
+		}
+	}
+	
+	/**
+	 * Fills distances[i] with the distance from the given point to point i, for the first count points.
+	 */
+	static void fromPoint(double latitude, double longitude, double[] latitudes, double[] longitudes, int count, double[] distances)
+	{
+		GeoPosition position = new GeoPosition(latitude, longitude, 0d);
+		DoubleVector[] from = new DoubleVector[] {
+			DoubleVector.broadcast(SPECIES, position.cosLatitude * position.cosLongitude),
+			DoubleVector.broadcast(SPECIES, position.cosLatitude * position.sinLongitude),
+			DoubleVector.broadcast(SPECIES, position.sinLatitude)
+		};
+		int ii = 0;
+		for(; ii < SPECIES.loopBound(count); ii += SPECIES.length())
+		{
+			distance(from, unitVector(latitudes, longitudes, ii)).intoArray(distances, ii);
+		}
+		
+		for(; ii < count; ii++)
+		{
+			distances[ii] = GeoUtils.calcMetresDistance(latitude, longitude, latitudes[ii], longitudes[ii]);
+		}
+	}
+	
+	/**
+	 * Loads a vector of points from the arrays, and returns the x, y and z components of their unit vectors.
+	 */
+	private static DoubleVector[] unitVector(double[] latitudes, double[] longitudes, int offset)
+	{
+		DoubleVector latitude = DoubleVector.fromArray(SPECIES, latitudes, offset).mul(DEGREES_TO_RADIANS);
+		DoubleVector longitude = DoubleVector.fromArray(SPECIES, longitudes, offset).mul(DEGREES_TO_RADIANS);
+		DoubleVector cosLatitude = latitude.lanewise(VectorOperators.COS);
+		return new DoubleVector[] {
+			cosLatitude.mul(longitude.lanewise(VectorOperators.COS)),
+			cosLatitude.mul(longitude.lanewise(VectorOperators.SIN)),
+			latitude.lanewise(VectorOperators.SIN)
+		};
+	}
+	
+	/**
+	 * The lanewise version of GeoUtils.centralAngle, scaled to metres.
+	 */
+	private static DoubleVector distance(DoubleVector[] from, DoubleVector[] to)
+	{
+		DoubleVector crossX = from[1].mul(to[2]).sub(from[2].mul(to[1]));
+		DoubleVector crossY = from[2].mul(to[0]).sub(from[0].mul(to[2]));
+		DoubleVector crossZ = from[0].mul(to[1]).sub(from[1].mul(to[0]));
+		DoubleVector cross = crossX.mul(crossX).add(crossY.mul(crossY)).add(crossZ.mul(crossZ)).lanewise(VectorOperators.SQRT);
+		DoubleVector dot = from[0].mul(to[0]).add(from[1].mul(to[1])).add(from[2].mul(to[2]));
+		return cross.lanewise(VectorOperators.ATAN2, dot).mul(GeoUtils.EARTH_RADIUS);
+	}
+}
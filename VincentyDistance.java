@@ -0,0 +1,117 @@
+package geoapp;
+
+/**
+ * Vincenty's inverse formula on the WGS-84 ellipsoid. For nearly antipodal positions, where the
+ * iteration does not converge, the haversine distance is returned instead.
+ */
+class VincentyDistance implements DistanceEngine
+{
+	// WGS-84 semi-major axis, flattening and semi-minor axis
+	private static final double A = 6378137d;
+	private static final double F = 1d / 298.257223563;
+	private static final double B = A * (1d - F);
+	
+	private static final int MAX_ITERATIONS = 100;
+	private static final double TOLERANCE = 1e-12;
+	
+	@Override
+	public double distance(GeoPosition from, GeoPosition to)
+	{
+		double result = inverse(from.sinLatitude, from.cosLatitude, from.longitudeRadians,
+				to.sinLatitude, to.cosLatitude, to.longitudeRadians);
+		return Double.isNaN(result) ? HAVERSINE.distance(from, to) : result;
+	}
+	
+	/**
+	 * Works on the columns directly, finding the sine and cosine of each point's latitude once for
+	 * both of its segments, instead of building a GeoPosition for every point.
+	 */
+	@Override
+	public void distances(double[] latitudes, double[] longitudes, int count, double[] distances)
+	{
+		if(count < 2)
+		{
+			return;
+		}
+		double latitude = Math.toRadians(GeoPosition.wrapLatitude(latitudes[0]));
+		double toSin = Math.sin(latitude);
+		double toCos = Math.cos(latitude);
+		double toLongitude = Math.toRadians(GeoPosition.wrapLongitude(longitudes[0]));
+		for(int ii = 0; ii < count - 1; ii++)
+		{
+			double fromSin = toSin, fromCos = toCos, fromLongitude = toLongitude;
+			latitude = Math.toRadians(GeoPosition.wrapLatitude(latitudes[ii + 1]));
+			toSin = Math.sin(latitude);
+			toCos = Math.cos(latitude);
+			toLongitude = Math.toRadians(GeoPosition.wrapLongitude(longitudes[ii + 1]));
+			
+			double result = inverse(fromSin, fromCos, fromLongitude, toSin, toCos, toLongitude);
+			if(Double.isNaN(result))
+			{
+				// Nearly antipodal, which is rare enough to build the positions for
+				result = HAVERSINE.distance(new GeoPosition(latitudes[ii], longitudes[ii], 0d),
+						new GeoPosition(latitudes[ii + 1], longitudes[ii + 1], 0d));
+			}
+			distances[ii] = result;
+		}
+	}
+	
+	/**
+	 * Returns the distance between two positions, given the sines and cosines of their latitudes and
+	 * their longitudes in radians, or NaN if the iteration does not converge.
+	 */
+	private static double inverse(double sinLatitude1, double cosLatitude1, double longitude1,
+			double sinLatitude2, double cosLatitude2, double longitude2)
+	{
+		// Reduced latitudes, from the sines and cosines: tan U = (1 - f) tan latitude
+		double scale1 = 1d / Math.sqrt(cosLatitude1 * cosLatitude1 + (1d - F) * (1d - F) * sinLatitude1 * sinLatitude1);
+		double cosU1 = cosLatitude1 * scale1;
+		double sinU1 = (1d - F) * sinLatitude1 * scale1;
+		double scale2 = 1d / Math.sqrt(cosLatitude2 * cosLatitude2 + (1d - F) * (1d - F) * sinLatitude2 * sinLatitude2);
+		double cosU2 = cosLatitude2 * scale2;
+		double sinU2 = (1d - F) * sinLatitude2 * scale2;
+		
+		double longitudeDelta = longitude2 - longitude1;
+		double lambda = longitudeDelta;
+		double sinSigma, cosSigma, sigma, cos2Alpha, cos2SigmaM;
+		int iterations = 0;
+		while(true)
+		{
+			double sinLambda = Math.sin(lambda);
+			double cosLambda = Math.cos(lambda);
+			double crossTerm = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+			sinSigma = Math.sqrt(cosU2 * sinLambda * cosU2 * sinLambda + crossTerm * crossTerm);
+			if(sinSigma == 0d)
+			{
+				// The positions are the same
+				return 0d;
+			}
+			cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+			sigma = Math.atan2(sinSigma, cosSigma);
+			double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+			cos2Alpha = 1d - sinAlpha * sinAlpha;
+			// Both positions on the equator
+			cos2SigmaM = cos2Alpha == 0d ? 0d : cosSigma - 2d * sinU1 * sinU2 / cos2Alpha;
+			
+			double c = F / 16d * cos2Alpha * (4d + F * (4d - 3d * cos2Alpha));
+			double previous = lambda;
+			lambda = longitudeDelta + (1d - c) * F * sinAlpha
+					* (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1d + 2d * cos2SigmaM * cos2SigmaM)));
+			if(Math.abs(lambda - previous) < TOLERANCE)
+			{
+				break;
+			}
+			if(++iterations >= MAX_ITERATIONS)
+			{
+				return Double.NaN;
+			}
+		}
+		
+		double u2 = cos2Alpha * (A * A - B * B) / (B * B);
+		double termA = 1d + u2 / 16384d * (4096d + u2 * (-768d + u2 * (320d - 175d * u2)));
+		double termB = u2 / 1024d * (256d + u2 * (-128d + u2 * (74d - 47d * u2)));
+		double sigmaDelta = termB * sinSigma * (cos2SigmaM + termB / 4d * (cosSigma * (-1d + 2d * cos2SigmaM * cos2SigmaM)
+				- termB / 6d * cos2SigmaM * (-3d + 4d * sinSigma * sinSigma) * (-3d + 4d * cos2SigmaM * cos2SigmaM)));
+		return B * termA * (sigma - sigmaDelta);
+	}
+}
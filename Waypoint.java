@@ -11,6 +11,11 @@ public class Waypoint
 		this.description = description;
 	}
 	
+	public String getDescription()
+	{
+		return description;
+	}
+	
 	public GeoPosition getPosition()
 	{
 		return position;
@@ -35,41 +40,28 @@ public class Waypoint
 	 * Parses a waypoint from a route data string.
 	 * Returns null if the string was invalid.
 	 * Valid strings are of the form <latitude>,<longitude>,<altitude>,[description]
+	 * The route data parser tokenizes lines directly with RouteLineTokenizer, which reports
+	 * invalid lines without throwing.
 	 * @param s
 	 * @return
 	 */
 	public static Waypoint parse(String s) throws IllegalArgumentException, WaypointDescriptionException
 	{
-		String[] components = s.split(",");
-		// Early out if there are not exactly 4 components
-		if(components.length != 4)
-		{
-			throw new IllegalArgumentException();
-		}
-		// Also ensure the description is correctly formatted:
-		components[3] = components[3].trim();
-		if(!components[3].startsWith("[") || !components[3].endsWith("]"))
-		{
-			throw new WaypointDescriptionException();
-		}
-		
-		// Parse the lat, long, and altitude:
-		double latitude, longitude, altitude;
-		try
-		{
-			latitude = Double.parseDouble(components[0]);
-			longitude = Double.parseDouble(components[1]);
-			altitude = Double.parseDouble(components[2]);
-		}catch(NumberFormatException e)
+		RouteLineTokenizer tokenizer = new RouteLineTokenizer();
+		switch(tokenizer.tokenize(s, 0, s.length()))
 		{
-			// One of the numerical arguments was invalid.
-			return null;
+			case RouteLineTokenizer.WAYPOINT:
+				GeoPosition position = new GeoPosition(tokenizer.getLatitude(), tokenizer.getLongitude(), tokenizer.getAltitude());
+				return new Waypoint(tokenizer.getText().toString(), position);
+			case RouteLineTokenizer.INVALID_DESCRIPTION:
+				throw new WaypointDescriptionException();
+			case RouteLineTokenizer.INVALID_NUMBER:
+				// One of the numerical arguments was invalid.
+				return null;
+			default:
+				// Not a waypoint with a description
+				throw new IllegalArgumentException();
 		}
-		String description = components[3].substring(1, components[3].length() - 1);
-		
-		GeoPosition position = new GeoPosition(latitude, longitude, altitude);
-		
-		return new Waypoint(description, position);
 	}
 	
 	@Override
@@ -0,0 +1,25 @@
+package geoapp;
+
+/**
+ * Walks the waypoints of a route without creating a Waypoint for each of them.
+ * A cursor starts before the first waypoint, and its getters describe the waypoint it was last moved to.
+ */
+public interface WaypointCursor
+{
+	/**
+	 * Moves to the next waypoint. Returns false if there are no more waypoints.
+	 * @return
+	 */
+	public boolean next();
+	
+	/**
+	 * Moves the cursor back to before the first waypoint.
+	 */
+	public void reset();
+	
+	public int getIndex();
+	public double getLatitude();
+	public double getLongitude();
+	public double getAltitude();
+	public String getDescription();
+}
@@ -0,0 +1,63 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+
+/**
+ * Measures the aggregate queries of a route that nests other routes to the given depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregateBenchmark
+{
+	@Param({"1", "10", "100"})
+	public int depth;
+	
+	@Param({"10"})
+	public int waypointsPerRoute;
+	
+	private CompositeRoute route;
+	
+	@Setup
+	public void setup()
+	{
+		// A chain of routes, each pointing to the one before it
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(depth + 1);
+		generator.setWaypointsPerRoute(waypointsPerRoute);
+		generator.setPointerDepth(depth);
+		generator.setPointerDensity(1d);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		route = routes.get(depth);
+	}
+	
+	@Benchmark
+	public double getHorizontalDistance()
+	{
+		return route.getHorizontalDistance();
+	}
+	
+	@Benchmark
+	public int getNumWaypoints()
+	{
+		return route.getNumWaypoints();
+	}
+}
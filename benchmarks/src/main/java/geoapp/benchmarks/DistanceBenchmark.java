@@ -0,0 +1,97 @@
+package geoapp.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.GeoPosition;
+import geoapp.GeoUtils;
+
+/**
+ * Measures GeoUtils.calcMetresDistance over a fixed set of nearby coordinates, one pair at a time
+ * (from coordinates and from positions) and in batches with GeoUtils.calcMetresDistances. The result is reported per distance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceBenchmark
+{
+	private static final int POINTS = 1024;
+	
+	// Whether the batches use the Vector API (ignored if jdk.incubator.vector is not present)
+	@Param({"false", "true"})
+	public boolean vector;
+	
+	private final double[] latitudes = new double[POINTS];
+	private final double[] longitudes = new double[POINTS];
+	private final double[] distances = new double[POINTS];
+	private final GeoPosition[] positions = new GeoPosition[POINTS];
+	
+	@Setup
+	public void setup()
+	{
+		GeoUtils.setVectorDistances(vector);
+		Random random = new Random(42);
+		for(int ii = 0; ii < POINTS; ii++)
+		{
+			latitudes[ii] = -31.95 + random.nextDouble() * 0.1;
+			longitudes[ii] = 115.77 + random.nextDouble() * 0.1;
+			positions[ii] = new GeoPosition(latitudes[ii], longitudes[ii], 0d);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS - 1)
+	public double calcMetresDistance()
+	{
+		double total = 0d;
+		for(int ii = 1; ii < POINTS; ii++)
+		{
+			total += GeoUtils.calcMetresDistance(latitudes[ii - 1], longitudes[ii - 1], latitudes[ii], longitudes[ii]);
+		}
+		return total;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS - 1)
+	public double calcMetresDistancePositions()
+	{
+		double total = 0d;
+		for(int ii = 1; ii < POINTS; ii++)
+		{
+			total += GeoUtils.calcMetresDistance(positions[ii - 1], positions[ii]);
+		}
+		return total;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS - 1)
+	public double[] calcMetresDistancesConsecutive()
+	{
+		GeoUtils.calcMetresDistances(latitudes, longitudes, POINTS, distances);
+		return distances;
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double[] calcMetresDistancesFromPoint()
+	{
+		GeoUtils.calcMetresDistances(-31.9, 115.8, latitudes, longitudes, POINTS, distances);
+		return distances;
+	}
+}
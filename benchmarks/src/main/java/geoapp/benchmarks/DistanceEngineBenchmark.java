@@ -0,0 +1,64 @@
+package geoapp.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.DistanceEngine;
+import geoapp.GeoPosition;
+
+/**
+ * Compares the cost of each distance engine over the same nearby positions.
+ * The result is reported per distance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceEngineBenchmark
+{
+	private static final int POINTS = 1024;
+	
+	@Param({"EQUIRECTANGULAR", "HAVERSINE", "VINCENTY"})
+	public String engineName;
+	
+	private DistanceEngine engine;
+	private final GeoPosition[] positions = new GeoPosition[POINTS];
+	
+	@Setup
+	public void setup() throws ReflectiveOperationException
+	{
+		engine = (DistanceEngine)DistanceEngine.class.getField(engineName).get(null);
+		Random random = new Random(42);
+		for(int ii = 0; ii < POINTS; ii++)
+		{
+			positions[ii] = new GeoPosition(-31.95 + random.nextDouble() * 0.1, 115.77 + random.nextDouble() * 0.1, 0d);
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(POINTS - 1)
+	public double distance()
+	{
+		double total = 0d;
+		for(int ii = 1; ii < POINTS; ii++)
+		{
+			total += engine.distance(positions[ii - 1], positions[ii]);
+		}
+		return total;
+	}
+}
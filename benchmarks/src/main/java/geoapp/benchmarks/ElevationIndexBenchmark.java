@@ -0,0 +1,84 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+import geoapp.ElevationIndex;
+
+/**
+ * Measures range queries over the altitudes of a route of 100 to 100000 waypoints,
+ * between pairs of waypoints chosen at random.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElevationIndexBenchmark
+{
+	@Param({"100", "100000"})
+	public int waypointsPerRoute;
+	
+	private ElevationIndex index;
+	private int[] froms, tos;
+	private double[] distances;
+	private int next = 0;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(1);
+		generator.setWaypointsPerRoute(waypointsPerRoute);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		index = routes.get(0).getElevationIndex();
+		
+		Random random = new Random(1);
+		froms = new int[1024];
+		tos = new int[1024];
+		distances = new double[1024];
+		for(int ii = 0; ii < froms.length; ii++)
+		{
+			int a = random.nextInt(index.size()), b = random.nextInt(index.size());
+			froms[ii] = Math.min(a, b);
+			tos[ii] = Math.max(a, b) == froms[ii] ? froms[ii] + 1 : Math.max(a, b);
+			distances[ii] = random.nextDouble() * routes.get(0).getHorizontalDistance();
+		}
+	}
+	
+	@Benchmark
+	public double maxAltitude()
+	{
+		int ii = next++ & (froms.length - 1);
+		return index.getMaxAltitude(froms[ii], tos[ii]);
+	}
+	
+	@Benchmark
+	public double maxGradient()
+	{
+		int ii = next++ & (froms.length - 1);
+		return index.getMaxGradient(froms[ii], tos[ii]);
+	}
+	
+	@Benchmark
+	public double climbRemaining()
+	{
+		int ii = next++ & (distances.length - 1);
+		return index.getClimbRemaining(distances[ii]);
+	}
+}
@@ -0,0 +1,124 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+import geoapp.NavigationListener;
+import geoapp.NavigationService;
+import geoapp.NavigationSession;
+import geoapp.RouteMatch;
+import geoapp.Waypoint;
+
+/**
+ * Feeds locations for 1000 devices, each walking its own route, into a NavigationService.
+ * Each device's locations step from waypoint to waypoint, as in NavigatorBenchmark. Once the
+ * queues fill, the score is the rate the workers apply locations at.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NavigationServiceBenchmark
+{
+	private static final int DEVICES = 1000;
+	// The number of positions received between each pair of waypoints
+	private static final int STEPS = 8;
+	
+	@Param({"1", "4"})
+	public int workers;
+	
+	private NavigationService service;
+	private NavigationSession[] sessions;
+	private double[][] latitudes, longitudes;
+	private int next = 0;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(100);
+		generator.setWaypointsPerRoute(50);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		
+		service = new NavigationService(workers, NavigationService.DEFAULT_QUEUE_CAPACITY);
+		NavigationListener listener = new NavigationListener()
+		{
+			@Override
+			public void positionUpdated(NavigationSession session)
+			{
+			}
+			
+			@Override
+			public void targetWaypointUpdated(NavigationSession session, Waypoint newTarget)
+			{
+			}
+			
+			@Override
+			public void offRoute(NavigationSession session, RouteMatch match)
+			{
+			}
+			
+			@Override
+			public void rejoinedRoute(NavigationSession session, RouteMatch match)
+			{
+			}
+		};
+		
+		sessions = new NavigationSession[DEVICES];
+		latitudes = new double[DEVICES][];
+		longitudes = new double[DEVICES][];
+		for(int device = 0; device < DEVICES; device++)
+		{
+			CompositeRoute route = routes.get(device % routes.size());
+			sessions[device] = service.openSession("device-" + device, route, listener);
+			
+			// Walk from each waypoint to the next, ending where the route starts so the walk can repeat
+			ArrayList<Waypoint> waypoints = route.getWaypoints();
+			int count = (waypoints.size() - 1) * STEPS;
+			latitudes[device] = new double[count];
+			longitudes[device] = new double[count];
+			for(int ii = 0; ii < count; ii++)
+			{
+				Waypoint from = waypoints.get(ii / STEPS);
+				Waypoint to = waypoints.get(ii / STEPS + 1);
+				double t = (ii % STEPS) / (double)STEPS;
+				latitudes[device][ii] = from.getLatitude() + (to.getLatitude() - from.getLatitude()) * t;
+				longitudes[device][ii] = from.getLongitude() + (to.getLongitude() - from.getLongitude()) * t;
+			}
+		}
+	}
+	
+	@TearDown
+	public void tearDown() throws InterruptedException
+	{
+		service.shutdown();
+	}
+	
+	@Benchmark
+	public void locationReceived()
+	{
+		// Devices take turns, so consecutive locations go to different workers
+		int device = next % DEVICES;
+		int step = next / DEVICES;
+		next = next == Integer.MAX_VALUE ? 0 : next + 1;
+		double[] deviceLatitudes = latitudes[device];
+		int ii = step % deviceLatitudes.length;
+		service.locationReceived(sessions[device], deviceLatitudes[ii], longitudes[device][ii], 0d);
+	}
+}
@@ -0,0 +1,151 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import geoapp.App;
+import geoapp.CompositeRoute;
+import geoapp.GeoPosition;
+import geoapp.RouteMatch;
+import geoapp.RouteNavigator;
+import geoapp.SpatialIndex;
+import geoapp.Waypoint;
+import geoapp.ui.UIController;
+
+/**
+ * Feeds positions along a route to the navigator, measuring how many location updates
+ * (including the UI callbacks made through App) can be handled per second.
+ * The contended group does the same while another thread reads the navigator's progress.
+ * With an event queue capacity of 0 the UI is called on the benchmark thread, otherwise on App's dispatch thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NavigatorBenchmark
+{
+	// The number of positions received between each pair of waypoints
+	private static final int STEPS = 8;
+	
+	@Param({"0", "1024"})
+	public int eventQueueCapacity;
+	
+	private RouteNavigator navigator;
+	private double[] latitudes, longitudes, altitudes;
+	private int next = 0;
+	
+	@Setup
+	public void setup(final Blackhole blackhole)
+	{
+		App.setRouteDownload(false);
+		App.setEventQueueCapacity(eventQueueCapacity);
+		App.init(new UIController()
+		{
+			@Override
+			public void positionUpdated(GeoPosition position)
+			{
+				blackhole.consume(position);
+			}
+			
+			@Override
+			public void routesUpdated(ArrayList<CompositeRoute> routes)
+			{
+			}
+			
+			@Override
+			public void targetWaypointUpdated(Waypoint newTarget)
+			{
+				blackhole.consume(newTarget);
+			}
+			
+			@Override
+			public void routeDownloadFailed()
+			{
+			}
+			
+			@Override
+			public void routesFound(GeoPosition position, double metres, ArrayList<SpatialIndex.Hit> hits)
+			{
+			}
+			
+			@Override
+			public void offRoute(RouteMatch match)
+			{
+			}
+			
+			@Override
+			public void rejoinedRoute(RouteMatch match)
+			{
+			}
+		});
+		
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(1);
+		generator.setWaypointsPerRoute(200);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		App.setRoute(routes.get(0));
+		navigator = App.getNavigator();
+		
+		// Walk from each waypoint to the next, arriving at every waypoint
+		ArrayList<Waypoint> waypoints = routes.get(0).getWaypoints();
+		int count = (waypoints.size() - 1) * STEPS + 1;
+		latitudes = new double[count];
+		longitudes = new double[count];
+		altitudes = new double[count];
+		for(int ii = 0; ii < count; ii++)
+		{
+			Waypoint from = waypoints.get(ii / STEPS);
+			Waypoint to = waypoints.get(Math.min(ii / STEPS + 1, waypoints.size() - 1));
+			double t = (ii % STEPS) / (double)STEPS;
+			latitudes[ii] = from.getLatitude() + (to.getLatitude() - from.getLatitude()) * t;
+			longitudes[ii] = from.getLongitude() + (to.getLongitude() - from.getLongitude()) * t;
+			altitudes[ii] = from.getAltitude() + (to.getAltitude() - from.getAltitude()) * t;
+		}
+	}
+	
+	@Benchmark
+	public void locationReceived()
+	{
+		if(next == latitudes.length || navigator.getCurrentSegment() == null)
+		{
+			// The end of the route was reached, start again
+			next = 0;
+			navigator.reset();
+		}
+		navigator.locationReceived(latitudes[next], longitudes[next], altitudes[next]);
+		next++;
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void writer()
+	{
+		locationReceived();
+	}
+	
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public double reader()
+	{
+		return navigator.getDistanceTravelled();
+	}
+}
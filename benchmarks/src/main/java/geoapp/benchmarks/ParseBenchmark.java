@@ -0,0 +1,53 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+
+/**
+ * Parses whole route feeds of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark
+{
+	@Param({"10", "100", "1000", "10000"})
+	public int routeCount;
+	
+	@Param({"20"})
+	public int waypointsPerRoute;
+	
+	private String feed;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(routeCount);
+		generator.setWaypointsPerRoute(waypointsPerRoute);
+		feed = generator.generate();
+	}
+	
+	@Benchmark
+	public ArrayList<CompositeRoute> parse()
+	{
+		return CompositeRoute.parse(feed);
+	}
+}
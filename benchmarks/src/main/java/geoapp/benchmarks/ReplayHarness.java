@@ -0,0 +1,132 @@
+package geoapp.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import geoapp.CompositeRoute;
+import geoapp.GeoUtils;
+import geoapp.GpsTrace;
+import geoapp.TraceReplay;
+import geoapp.Waypoint;
+
+/**
+ * Replays simulated GPS traces for many devices through a NavigationService, and prints the
+ * TraceReplay report. Each device travels along a generated route at a steady pace, with
+ * its fixes scattered by a given amount of noise.
+ * 
+ * Settings are given as name=value arguments, eg.
+ *   devices=5000 speed=10 hz=5 noise=5 workers=4
+ * A speed of max replays as fast as possible, and feeders=device sends each device's fixes
+ * from a thread of its own.
+ */
+public class ReplayHarness
+{
+	// Metres per degree of latitude
+	private static final double METRES_PER_DEGREE = 111320d;
+	
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		HashMap<String, String> settings = new HashMap<String, String>();
+		settings.put("devices", "1000");
+		settings.put("routes", "100");
+		settings.put("waypoints", "50");
+		settings.put("speed", "max");
+		settings.put("hz", "1");
+		settings.put("pace", "10");
+		settings.put("noise", "3");
+		settings.put("feeders", "1");
+		settings.put("workers", Integer.toString(Runtime.getRuntime().availableProcessors()));
+		settings.put("seed", "1");
+		for(String arg : args)
+		{
+			int equals = arg.indexOf('=');
+			if(equals < 0 || !settings.containsKey(arg.substring(0, equals)))
+			{
+				System.err.println("Unknown setting: " + arg);
+				System.err.println("Settings: " + settings);
+				System.exit(1);
+			}
+			settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		System.out.println("Settings: " + settings);
+		
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(Integer.parseInt(settings.get("routes")));
+		generator.setWaypointsPerRoute(Integer.parseInt(settings.get("waypoints")));
+		generator.setSeed(Long.parseLong(settings.get("seed")));
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		
+		double hz = Double.parseDouble(settings.get("hz"));
+		double pace = Double.parseDouble(settings.get("pace"));
+		double noise = Double.parseDouble(settings.get("noise"));
+		Random random = new Random(Long.parseLong(settings.get("seed")));
+		
+		TraceReplay replay = new TraceReplay(Integer.parseInt(settings.get("workers")));
+		String speed = settings.get("speed");
+		replay.setSpeed(speed.equals("max") ? TraceReplay.AS_FAST_AS_POSSIBLE : Double.parseDouble(speed));
+		String feeders = settings.get("feeders");
+		replay.setFeederThreads(feeders.equals("device") ? TraceReplay.THREAD_PER_DEVICE : Integer.parseInt(feeders));
+		int deviceCount = Integer.parseInt(settings.get("devices"));
+		long fixes = 0L;
+		for(int device = 0; device < deviceCount; device++)
+		{
+			CompositeRoute route = routes.get(device % routes.size());
+			GpsTrace trace = simulate(route, hz, pace, noise, random);
+			
+			// Go through CSV, as a recorded trace would
+			StringWriter csv = new StringWriter();
+			trace.write(csv);
+			trace = GpsTrace.read(new StringReader(csv.toString()));
+			
+			replay.addDevice("device-" + device, route, trace);
+			fixes += trace.size();
+		}
+		System.out.println("Replaying " + fixes + " fixes");
+		
+		System.out.println(replay.run());
+	}
+	
+	/**
+	 * Travels along a route at the given pace in metres per second, taking fixes at the given rate
+	 * with a fix at every waypoint. Fixes are moved in a random direction by up to the given noise in metres.
+	 */
+	private static GpsTrace simulate(CompositeRoute route, double hz, double pace, double noise, Random random)
+	{
+		GpsTrace trace = new GpsTrace();
+		ArrayList<Waypoint> waypoints = route.getWaypoints();
+		double step = pace / hz;
+		long time = 1700000000000L;
+		long interval = Math.round(1000d / hz);
+		for(int ii = 0; ii < waypoints.size(); ii++)
+		{
+			Waypoint from = waypoints.get(ii);
+			int steps = 1;
+			Waypoint to = from;
+			if(ii + 1 < waypoints.size())
+			{
+				to = waypoints.get(ii + 1);
+				double length = GeoUtils.getMeasurementEngine().distance(from.getPosition(), to.getPosition());
+				steps = Math.max(1, (int)Math.ceil(length / step));
+			}
+			for(int jj = 0; jj < steps; jj++)
+			{
+				double t = jj / (double)steps;
+				double latitude = from.getLatitude() + (to.getLatitude() - from.getLatitude()) * t;
+				double longitude = from.getLongitude() + (to.getLongitude() - from.getLongitude()) * t;
+				double altitude = from.getAltitude() + (to.getAltitude() - from.getAltitude()) * t;
+				
+				double angle = random.nextDouble() * 2d * Math.PI;
+				double offset = random.nextDouble() * noise / METRES_PER_DEGREE;
+				latitude += Math.sin(angle) * offset;
+				longitude += Math.cos(angle) * offset / Math.cos(Math.toRadians(latitude));
+				trace.add(time, latitude, longitude, altitude);
+				time += interval;
+			}
+		}
+		return trace;
+	}
+}
@@ -0,0 +1,216 @@
+package geoapp.benchmarks;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates route data in the same format as the route feed. The same settings always generate
+ * the same feed.
+ * 
+ * Routes are named route0, route1, ... and are each given a level from 0 to the pointer depth in turn.
+ * A route above level 0 may point to the route before it (one level down), so no chain of pointers is
+ * longer than the pointer depth. As in the sample route data, the pointer line is at the start of the
+ * route it points to, and the line after it at that route's end, so following a pointer never jumps.
+ * Cycles are added after the other routes as pairs of routes pointing to each other, and invalid lines
+ * are waypoints with a malformed coordinate or description.
+ */
+public class RouteFeedGenerator
+{
+	// Roughly the area covered by the sample route data
+	private static final double START_LATITUDE = -31.95, START_LONGITUDE = 115.77;
+	
+	private int routeCount = 100;
+	private int waypointsPerRoute = 20;
+	private double pointerDensity = 0.25;
+	private int pointerDepth = 1;
+	private int cycleCount = 0;
+	private double invalidLineRate = 0d;
+	private long seed = 1L;
+	private double spread = 0.1d;
+	
+	/**
+	 * @param routeCount the number of routes, not counting the routes forming cycles
+	 */
+	public void setRouteCount(int routeCount)
+	{
+		this.routeCount = routeCount;
+	}
+	
+	/**
+	 * @param waypointsPerRoute the number of lines in each route, including the line ending the route
+	 */
+	public void setWaypointsPerRoute(int waypointsPerRoute)
+	{
+		if(waypointsPerRoute < 2)
+		{
+			throw new IllegalArgumentException("routes need at least 2 waypoints");
+		}
+		this.waypointsPerRoute = waypointsPerRoute;
+	}
+	
+	/**
+	 * @param spread the width in degrees of the area that routes start in
+	 */
+	public void setSpread(double spread)
+	{
+		this.spread = spread;
+	}
+	
+	/**
+	 * @param pointerDensity the chance (0 to 1) that a route above level 0 points to another route
+	 */
+	public void setPointerDensity(double pointerDensity)
+	{
+		this.pointerDensity = pointerDensity;
+	}
+	
+	/**
+	 * @param pointerDepth the length of the longest chain of pointers
+	 */
+	public void setPointerDepth(int pointerDepth)
+	{
+		if(pointerDepth < 0)
+		{
+			throw new IllegalArgumentException("pointer depth cannot be negative");
+		}
+		this.pointerDepth = pointerDepth;
+	}
+	
+	/**
+	 * @param cycleCount the number of pairs of routes pointing to each other
+	 */
+	public void setCycleCount(int cycleCount)
+	{
+		this.cycleCount = cycleCount;
+	}
+	
+	/**
+	 * @param invalidLineRate the chance (0 to 1) that a waypoint line is malformed
+	 */
+	public void setInvalidLineRate(double invalidLineRate)
+	{
+		this.invalidLineRate = invalidLineRate;
+	}
+	
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+	
+	/**
+	 * Returns the generated feed.
+	 * @return
+	 */
+	public String generate()
+	{
+		StringBuilder feed = new StringBuilder(routeCount * waypointsPerRoute * 40);
+		generate(feed);
+		return feed.toString();
+	}
+	
+	/**
+	 * Appends the generated feed to the given builder.
+	 * @param feed
+	 */
+	public void generate(StringBuilder feed)
+	{
+		Random random = new Random(seed);
+		double[] previous = null;
+		for(int route = 0; route < routeCount; route++)
+		{
+			String target = null;
+			if(route % (pointerDepth + 1) > 0 && random.nextDouble() < pointerDensity)
+			{
+				target = "route" + (route - 1);
+			}
+			previous = appendRoute(feed, random, "route" + route, target, target == null ? null : previous);
+		}
+		for(int cycle = 0; cycle < cycleCount; cycle++)
+		{
+			// Routes in a cycle are never built, so where they point does not matter
+			appendRoute(feed, random, "cycleA" + cycle, "cycleB" + cycle, null);
+			appendRoute(feed, random, "cycleB" + cycle, "cycleA" + cycle, null);
+		}
+	}
+	
+	/**
+	 * Appends a single route, pointing to the target halfway along if there is one. If the target's
+	 * ends are given, the route walks to the target's start, and carries on from its end.
+	 * Returns the latitude, longitude and altitude of the route's start followed by those of its end.
+	 */
+	private double[] appendRoute(StringBuilder feed, Random random, String name, String target, double[] targetEnds)
+	{
+		feed.append(name).append(" [description of ").append(name).append("]\n");
+		int pointerLine = target != null && waypointsPerRoute / 2 < waypointsPerRoute - 1 ? waypointsPerRoute / 2 : -1;
+		double[] latitudes = new double[waypointsPerRoute];
+		double[] longitudes = new double[waypointsPerRoute];
+		double[] altitudes = new double[waypointsPerRoute];
+		int next;
+		if(pointerLine >= 0 && targetEnds != null)
+		{
+			// Walk back from the target's start to where the route begins
+			latitudes[pointerLine] = targetEnds[0];
+			longitudes[pointerLine] = targetEnds[1];
+			altitudes[pointerLine] = targetEnds[2];
+			for(int point = pointerLine - 1; point >= 0; point--)
+			{
+				step(random, latitudes, longitudes, altitudes, point + 1, point);
+			}
+			latitudes[pointerLine + 1] = targetEnds[3];
+			longitudes[pointerLine + 1] = targetEnds[4];
+			altitudes[pointerLine + 1] = targetEnds[5];
+			next = pointerLine + 2;
+		}else
+		{
+			latitudes[0] = START_LATITUDE + random.nextDouble() * spread;
+			longitudes[0] = START_LONGITUDE + random.nextDouble() * spread;
+			altitudes[0] = 40d + random.nextDouble() * 20d;
+			next = 1;
+		}
+		for(int point = next; point < waypointsPerRoute; point++)
+		{
+			step(random, latitudes, longitudes, altitudes, point - 1, point);
+		}
+		
+		for(int point = 0; point < waypointsPerRoute - 1; point++)
+		{
+			appendPosition(feed, latitudes[point], longitudes[point], altitudes[point]);
+			if(point == pointerLine)
+			{
+				feed.append(",*").append(target).append('\n');
+			}else if(invalidLineRate > 0d && random.nextDouble() < invalidLineRate)
+			{
+				// Either a description without its opening bracket, or a coordinate that is not a number
+				if(random.nextBoolean())
+				{
+					feed.append(",waypoint ").append(point).append("]\n");
+				}else
+				{
+					feed.append("x,[waypoint ").append(point).append("]\n");
+				}
+			}else
+			{
+				feed.append(",[waypoint ").append(point).append("]\n");
+			}
+		}
+		int last = waypointsPerRoute - 1;
+		appendPosition(feed, latitudes[last], longitudes[last], altitudes[last]);
+		feed.append('\n');
+		return new double[] {latitudes[0], longitudes[0], altitudes[0], latitudes[last], longitudes[last], altitudes[last]};
+	}
+	
+	/**
+	 * Sets a waypoint to a random step away from another.
+	 */
+	private static void step(Random random, double[] latitudes, double[] longitudes, double[] altitudes, int from, int to)
+	{
+		latitudes[to] = latitudes[from] + (random.nextDouble() - 0.5) * 0.002;
+		longitudes[to] = longitudes[from] + (random.nextDouble() - 0.5) * 0.002;
+		altitudes[to] = altitudes[from] + (random.nextDouble() - 0.5) * 4d;
+	}
+	
+	private static void appendPosition(StringBuilder feed, double latitude, double longitude, double altitude)
+	{
+		feed.append(String.format(Locale.ROOT, "%.6f,%.6f,%.1f", latitude, longitude, altitude));
+	}
+}
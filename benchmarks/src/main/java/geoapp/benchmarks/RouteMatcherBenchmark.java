@@ -0,0 +1,72 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+import geoapp.RouteMatch;
+import geoapp.RouteMatcher;
+import geoapp.Waypoint;
+
+/**
+ * Measures matching a position to a route of 100 to 100000 waypoints.
+ * Positions are scattered up to about 50 metres either side of the route's waypoints.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteMatcherBenchmark
+{
+	@Param({"100", "100000"})
+	public int waypointsPerRoute;
+	
+	private RouteMatcher matcher;
+	private final RouteMatch match = new RouteMatch();
+	private double[] latitudes, longitudes;
+	private int next = 0;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(1);
+		generator.setWaypointsPerRoute(waypointsPerRoute);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		matcher = routes.get(0).getMatcher();
+		
+		ArrayList<Waypoint> waypoints = routes.get(0).getWaypoints();
+		Random random = new Random(1);
+		latitudes = new double[1024];
+		longitudes = new double[1024];
+		for(int ii = 0; ii < latitudes.length; ii++)
+		{
+			Waypoint waypoint = waypoints.get(random.nextInt(waypoints.size()));
+			latitudes[ii] = waypoint.getLatitude() + (random.nextDouble() - 0.5) * 0.001;
+			longitudes[ii] = waypoint.getLongitude() + (random.nextDouble() - 0.5) * 0.001;
+		}
+	}
+	
+	@Benchmark
+	public double match()
+	{
+		int ii = next++ & (latitudes.length - 1);
+		matcher.match(latitudes[ii], longitudes[ii], match);
+		return match.getCrossTrackDistance();
+	}
+}
@@ -0,0 +1,197 @@
+package geoapp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+
+import geoapp.App;
+import geoapp.CompositeRoute;
+import geoapp.GeoPosition;
+import geoapp.GeoUtils;
+import geoapp.RouteMatch;
+import geoapp.SpatialIndex;
+import geoapp.Waypoint;
+import geoapp.ui.UIController;
+
+/**
+ * Runs App.init over generated feeds of increasing size, and reports the wall time, peak heap,
+ * bytes allocated and routes built per second of each run.
+ * 
+ * Settings are given as name=value arguments, and routes may list several sizes, eg.
+ *   routes=1000,10000,100000 waypoints=50 density=0.5 depth=3 cycles=10 invalid=0.001
+ * 
+ * Allocation is measured on the thread calling App.init, so it only covers the whole startup
+ * when parallelism=1 (the default here). Each feed is written to a temporary file and streamed from
+ * there, as it would be from the server, so the feed itself is not part of the peak heap.
+ */
+public class ScaleHarness
+{
+	private static int routesBuilt;
+	
+	public static void main(String[] args) throws IOException
+	{
+		HashMap<String, String> settings = new HashMap<String, String>();
+		settings.put("routes", "1000,10000,100000");
+		settings.put("waypoints", "20");
+		settings.put("density", "0.25");
+		settings.put("depth", "1");
+		settings.put("cycles", "0");
+		settings.put("invalid", "0");
+		settings.put("seed", "1");
+		settings.put("parallelism", "1");
+		settings.put("lazy", "false");
+		settings.put("runs", "3");
+		for(String arg : args)
+		{
+			int equals = arg.indexOf('=');
+			if(equals < 0 || !settings.containsKey(arg.substring(0, equals)))
+			{
+				System.err.println("Unknown setting: " + arg);
+				System.err.println("Settings: " + settings);
+				System.exit(1);
+			}
+			settings.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setWaypointsPerRoute(Integer.parseInt(settings.get("waypoints")));
+		generator.setPointerDensity(Double.parseDouble(settings.get("density")));
+		generator.setPointerDepth(Integer.parseInt(settings.get("depth")));
+		generator.setCycleCount(Integer.parseInt(settings.get("cycles")));
+		generator.setInvalidLineRate(Double.parseDouble(settings.get("invalid")));
+		generator.setSeed(Long.parseLong(settings.get("seed")));
+		App.setParseParallelism(Integer.parseInt(settings.get("parallelism")));
+		App.setLazyRoutes(Boolean.parseBoolean(settings.get("lazy")));
+		int runs = Integer.parseInt(settings.get("runs"));
+		
+		System.out.println("Settings: " + settings);
+		
+		File feed = File.createTempFile("feed", ".txt");
+		feed.deleteOnExit();
+		
+		// Warm up the parser on a small feed first
+		generator.setRouteCount(1000);
+		writeFeed(generator, feed);
+		for(int ii = 0; ii < 5; ii++)
+		{
+			init();
+		}
+		
+		System.out.println(String.format(Locale.ROOT, "%10s %12s %4s %10s %12s %12s %12s %14s",
+				"routes", "feed MB", "run", "built", "wall ms", "peak heap MB", "alloc MB", "routes/s"));
+		for(String size : settings.get("routes").split(","))
+		{
+			int routeCount = Integer.parseInt(size.trim());
+			generator.setRouteCount(routeCount);
+			writeFeed(generator, feed);
+			for(int run = 1; run <= runs; run++)
+			{
+				// Start each run from a collected heap
+				System.gc();
+				ArrayList<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+				for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+				{
+					if(pool.getType() == MemoryType.HEAP)
+					{
+						pool.resetPeakUsage();
+						heapPools.add(pool);
+					}
+				}
+				long allocatedBefore = allocatedBytes();
+				long start = System.nanoTime();
+				
+				init();
+				
+				long wallNanos = System.nanoTime() - start;
+				long allocated = allocatedBytes() - allocatedBefore;
+				long peakHeap = 0;
+				for(MemoryPoolMXBean pool : heapPools)
+				{
+					peakHeap += pool.getPeakUsage().getUsed();
+				}
+				
+				System.out.println(String.format(Locale.ROOT, "%10d %12.1f %4d %10d %12.1f %12.1f %12.1f %14.0f",
+						routeCount, feed.length() / 1e6, run, routesBuilt, wallNanos / 1e6,
+						peakHeap / 1e6, allocated / 1e6, routesBuilt / (wallNanos / 1e9)));
+			}
+		}
+		GeoUtils.setRouteData(null);
+		feed.delete();
+	}
+	
+	/**
+	 * Writes a generated feed to the given file, and reads the route data from it.
+	 */
+	private static void writeFeed(RouteFeedGenerator generator, File file) throws IOException
+	{
+		Files.write(file.toPath(), generator.generate().getBytes(StandardCharsets.UTF_8));
+		GeoUtils.setRouteDataFile(file);
+	}
+	
+	/**
+	 * Starts the app with a UI that only counts the routes it receives.
+	 */
+	private static void init()
+	{
+		routesBuilt = 0;
+		App.init(new UIController()
+		{
+			@Override
+			public void positionUpdated(GeoPosition position)
+			{
+			}
+			
+			@Override
+			public void routesUpdated(ArrayList<CompositeRoute> routes)
+			{
+				routesBuilt = routes.size();
+			}
+			
+			@Override
+			public void targetWaypointUpdated(Waypoint newTarget)
+			{
+			}
+			
+			@Override
+			public void routeDownloadFailed()
+			{
+				System.err.println("Route download failed");
+			}
+			
+			@Override
+			public void routesFound(GeoPosition position, double metres, ArrayList<SpatialIndex.Hit> hits)
+			{
+			}
+			
+			@Override
+			public void offRoute(RouteMatch match)
+			{
+			}
+			
+			@Override
+			public void rejoinedRoute(RouteMatch match)
+			{
+			}
+		});
+	}
+	
+	/**
+	 * Returns the number of bytes allocated by the current thread so far, or 0 if the JVM cannot tell.
+	 */
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean)
+		{
+			return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
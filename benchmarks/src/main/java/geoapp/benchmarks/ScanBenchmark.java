@@ -0,0 +1,77 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.ColumnarRoute;
+import geoapp.CompositeRoute;
+import geoapp.RouteCursor;
+import geoapp.Segment;
+import geoapp.WaypointCursor;
+
+/**
+ * Measures a full scan of the altitudes of a route's waypoints, through its segments and through a cursor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark
+{
+	@Param({"100", "10000"})
+	public int waypointsPerRoute;
+	
+	private CompositeRoute route;
+	private ColumnarRoute columns;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(1);
+		generator.setWaypointsPerRoute(waypointsPerRoute);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		route = routes.get(0);
+		// A route without pointers holds its waypoints in a single run
+		columns = (ColumnarRoute)route.getSubroute(0);
+	}
+	
+	@Benchmark
+	public double segments()
+	{
+		double highest = Double.NEGATIVE_INFINITY;
+		RouteCursor cursor = route.cursor();
+		while(cursor.hasNext())
+		{
+			Segment segment = cursor.next();
+			highest = Math.max(highest, segment.getEndWaypoint().getAltitude());
+		}
+		return highest;
+	}
+	
+	@Benchmark
+	public double cursor()
+	{
+		double highest = Double.NEGATIVE_INFINITY;
+		WaypointCursor cursor = columns.waypointCursor();
+		while(cursor.next())
+		{
+			highest = Math.max(highest, cursor.getAltitude());
+		}
+		return highest;
+	}
+}
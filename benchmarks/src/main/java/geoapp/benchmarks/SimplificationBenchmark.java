@@ -0,0 +1,64 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+import geoapp.RouteSimplification;
+
+/**
+ * Measures simplifying a route of 1000 or 100000 waypoints at the default tolerances,
+ * and a whole catalog of 1000 routes of 100 waypoints using every core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimplificationBenchmark
+{
+	@Param({"1000", "100000"})
+	public int waypointsPerRoute;
+	
+	private CompositeRoute route;
+	private ArrayList<CompositeRoute> catalog;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(1);
+		generator.setWaypointsPerRoute(waypointsPerRoute);
+		route = CompositeRoute.parse(generator.generate()).get(0);
+		
+		generator = new RouteFeedGenerator();
+		generator.setRouteCount(1000);
+		generator.setWaypointsPerRoute(100);
+		catalog = CompositeRoute.parse(generator.generate());
+	}
+	
+	@Benchmark
+	public RouteSimplification simplify()
+	{
+		return new RouteSimplification(route, RouteSimplification.DEFAULT_TOLERANCES);
+	}
+	
+	@Benchmark
+	public void simplifyAll()
+	{
+		RouteSimplification.simplifyAll(catalog, RouteSimplification.DEFAULT_TOLERANCES, Runtime.getRuntime().availableProcessors());
+	}
+}
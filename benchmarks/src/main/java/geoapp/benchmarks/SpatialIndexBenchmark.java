@@ -0,0 +1,76 @@
+package geoapp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.CompositeRoute;
+import geoapp.GeoPosition;
+import geoapp.SpatialIndex;
+
+/**
+ * Measures queries of a spatial index over a catalog of 1000 to 50000 routes of 50 waypoints each,
+ * spread over a few hundred kilometres.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SpatialIndexBenchmark
+{
+	@Param({"1000", "50000"})
+	public int routeCount;
+	
+	private SpatialIndex index;
+	private GeoPosition centre;
+	
+	@Setup
+	public void setup()
+	{
+		RouteFeedGenerator generator = new RouteFeedGenerator();
+		generator.setRouteCount(routeCount);
+		generator.setWaypointsPerRoute(50);
+		generator.setPointerDensity(0d);
+		generator.setSpread(3d);
+		ArrayList<CompositeRoute> routes = CompositeRoute.parse(generator.generate());
+		index = new SpatialIndex(routes);
+		centre = new GeoPosition(-30.5, 117.2, 0d);
+	}
+	
+	@Benchmark
+	public int withinRadius()
+	{
+		return index.withinRadius(centre, 500d).size();
+	}
+	
+	@Benchmark
+	public int routesWithinRadius()
+	{
+		return index.routesWithinRadius(centre, 2000d).size();
+	}
+	
+	@Benchmark
+	public int withinBox()
+	{
+		return index.withinBox(-30.51, 117.19, -30.49, 117.21).size();
+	}
+	
+	@Benchmark
+	public int nearest()
+	{
+		return index.nearest(centre, 10).size();
+	}
+}
@@ -0,0 +1,42 @@
+package geoapp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import geoapp.Waypoint;
+import geoapp.WaypointDescriptionException;
+
+/**
+ * Parses single waypoint lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WaypointParseBenchmark
+{
+	@Param({
+		"-31.94,115.75,47.1,[description]",
+		"-31.945123,115.751234,47.125,[a somewhat longer waypoint description]",
+		"-31.94,115.75,not a number,[description]"
+	})
+	public String line;
+	
+	@Benchmark
+	public Waypoint parse() throws WaypointDescriptionException
+	{
+		return Waypoint.parse(line);
+	}
+}
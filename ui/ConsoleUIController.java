@@ -6,7 +6,11 @@ import java.util.Scanner;
 
 import geoapp.App;
 import geoapp.CompositeRoute;
+import geoapp.ElevationIndex;
 import geoapp.GeoPosition;
+import geoapp.RouteMatch;
+import geoapp.RouteNavigator;
+import geoapp.SpatialIndex;
 import geoapp.Waypoint;
 
 /**
@@ -29,13 +33,13 @@ public class ConsoleUIController implements UIController, Runnable
 		
 	}
 
-	private void routeInfo(String name)
+	private void routeInfo(String name, double tolerance)
 	{
 		for(CompositeRoute route : App.getRoutes())
 		{
 			if(route.toString().equals(name))
 			{
-				ArrayList<Waypoint> points = route.getWaypoints();
+				ArrayList<Waypoint> points = tolerance > 0d ? route.getWaypoints(tolerance) : route.getWaypoints();
 				
 				// This is the route we're searching for
 				System.out.println("Name: " + route);
@@ -51,6 +55,15 @@ public class ConsoleUIController implements UIController, Runnable
 						"\nVertical ascent:\n    " + fm.format(route.getAscension()) + "m" +
 						"\nVertical descent:\n    " + fm.format(route.getDescension()) + "m"
 					);
+				ElevationIndex elevation = route.getElevationIndex();
+				if(elevation.size() > 1)
+				{
+					int last = elevation.size() - 1;
+					System.out.println(
+							"Highest point:\n    " + fm.format(elevation.getMaxAltitude(0, last)) + "m" +
+							"\nSteepest climb:\n    " + fm.format(elevation.getMaxGradient(0, last) * 100d) + "%"
+						);
+				}
 			}
 		}
 	}
@@ -62,6 +75,15 @@ public class ConsoleUIController implements UIController, Runnable
 		if(position != null)
 		{
 			System.out.println("Current position: " + position);
+			RouteNavigator navigator = App.getNavigator();
+			if(navigator.getProgress() > 0d)
+			{
+				DecimalFormat fm = new DecimalFormat("###,###.#");
+				System.out.println("Travelled " + fm.format(navigator.getDistanceTravelled()) + "m, "
+						+ fm.format(navigator.getDistanceRemaining()) + "m remaining ("
+						+ fm.format(navigator.getProgress() * 100d) + "%), "
+						+ fm.format(navigator.getClimbRemaining()) + "m left to climb");
+			}
 		}else
 		{
 			System.out.println("Current position unavailable.");
@@ -79,6 +101,9 @@ public class ConsoleUIController implements UIController, Runnable
 				System.out.println(route + ": '" + route.getDescription() + "'");
 			}
 			routesDownloaded = true;
+		}else
+		{
+			System.out.println("Routes updated, " + routes.size() + " routes available.");
 		}
 		
 	}
@@ -104,24 +129,69 @@ public class ConsoleUIController implements UIController, Runnable
 					case "help":
 						System.out.println("help         - Shows this dialog");
 						System.out.println("exit         - Exits the program");
-						System.out.println("info [name]  - Shows information about a route with the given name.");
+						System.out.println("info [name] [metres]");
+						System.out.println("             - Shows information about a route with the given name, listing");
+						System.out.println("               its waypoints simplified to within the given distance, if any.");
 						System.out.println("list         - Lists all currently available routes.");
+						System.out.println("near [metres] [latitude longitude]");
+						System.out.println("             - Lists the routes within the given distance (1000m by default)");
+						System.out.println("               of a position, or of the current position.");
+						System.out.println("refresh      - Downloads any changes to the available routes.");
 						break;
 					case "info":
 						if(userInput.length > 1)
 						{
-							routeInfo(userInput[1]);
+							try
+							{
+								routeInfo(userInput[1], userInput.length > 2 ? Double.parseDouble(userInput[2]) : 0d);
+							}catch(NumberFormatException e)
+							{
+								System.out.println("Usage: info [name] [metres]");
+							}
 						}
 						break;
 					case "list":
 						listRoutes();
 						break;
+					case "near":
+						findRoutesNear(userInput);
+						break;
+					case "refresh":
+						App.refreshRoutes();
+						break;
 				}
 			}
 		}
 		scr.close();
 	}
 	
+	void findRoutesNear(String[] userInput)
+	{
+		try
+		{
+			double metres = userInput.length > 1 ? Double.parseDouble(userInput[1]) : 1000d;
+			GeoPosition position;
+			if(userInput.length > 3)
+			{
+				position = new GeoPosition(Double.parseDouble(userInput[2]), Double.parseDouble(userInput[3]), 0d);
+			}else
+			{
+				position = App.getNavigator().getCurrentPosition();
+			}
+			
+			if(position == null)
+			{
+				System.out.println("Current position unavailable.");
+			}else
+			{
+				App.findRoutesNear(position, metres);
+			}
+		}catch(NumberFormatException e)
+		{
+			System.out.println("Usage: near [metres] [latitude longitude]");
+		}
+	}
+	
 	void listRoutes()
 	{
 		for(CompositeRoute route : App.getRoutes())
@@ -142,4 +212,29 @@ public class ConsoleUIController implements UIController, Runnable
 		System.out.println("Failed to get routes from server.");
 	}
 
+	@Override
+	public void routesFound(GeoPosition position, double metres, ArrayList<SpatialIndex.Hit> hits)
+	{
+		DecimalFormat fm = new DecimalFormat("###,###.#");
+		System.out.println(hits.size() + " routes within " + fm.format(metres) + "m of " + position + ":");
+		for(SpatialIndex.Hit hit : hits)
+		{
+			System.out.println("    " + hit.getRoute() + ": " + fm.format(hit.getDistance()) + "m");
+		}
+	}
+	
+	@Override
+	public void offRoute(RouteMatch match)
+	{
+		DecimalFormat fm = new DecimalFormat("###,###.#");
+		System.out.println("Off route, " + fm.format(match.getCrossTrackDistance()) + "m from the nearest point of the route.");
+	}
+	
+	@Override
+	public void rejoinedRoute(RouteMatch match)
+	{
+		DecimalFormat fm = new DecimalFormat("###,###.#");
+		System.out.println("Back on route, " + fm.format(match.getDistanceAlong()) + "m along.");
+	}
+	
 }
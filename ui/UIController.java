@@ -14,4 +14,24 @@ public interface UIController
 	public void routesUpdated(ArrayList<CompositeRoute> routes);
 	public void targetWaypointUpdated(Waypoint newTarget);
 	public void routeDownloadFailed();
+	
+	/**
+	 * Called with the routes found near a position, with the nearest waypoint of each route.
+	 * @param position
+	 * @param metres the distance searched
+	 * @param hits
+	 */
+	public void routesFound(GeoPosition position, double metres, ArrayList<SpatialIndex.Hit> hits);
+	
+	/**
+	 * Called when the current position moves too far from the route being navigated.
+	 * @param match the nearest point of the route
+	 */
+	public void offRoute(RouteMatch match);
+	
+	/**
+	 * Called when the current position comes back to the route after leaving it.
+	 * @param match the point the route was rejoined at
+	 */
+	public void rejoinedRoute(RouteMatch match);
 }
\ No newline at end of file